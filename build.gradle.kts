@@ -4,6 +4,7 @@ plugins {
     `java-library`
     idea
 	eclipse
+    id("me.champeau.gradle.jmh") version "0.5.3"
 }
 
 repositories {
@@ -13,4 +14,26 @@ repositories {
 dependencies {
     compileOnly(fileTree("${cbHome}/tomcat/webapps/cb/WEB-INF/lib") { include("*.jar") })
     compileOnly(fileTree("${cbHome}/tomcat/lib") { include("*.jar") })
+
+    // benchmarks run outside of codeBeamer, so its libraries are added to their classpath
+    "jmh"(fileTree("${cbHome}/tomcat/webapps/cb/WEB-INF/lib") { include("*.jar") })
+    "jmh"(fileTree("${cbHome}/tomcat/lib") { include("*.jar") })
+
+    // the tests run with the codeBeamer libraries on their classpath, the job store test against an in-memory H2 database
+    testImplementation(fileTree("${cbHome}/tomcat/webapps/cb/WEB-INF/lib") { include("*.jar") })
+    testImplementation(fileTree("${cbHome}/tomcat/lib") { include("*.jar") })
+    testImplementation("junit:junit:4.13.1")
+    testImplementation("com.h2database:h2:1.4.200")
+    testImplementation("org.springframework:spring-test:5.2.9.RELEASE")
+}
+
+jmh {
+    jmhVersion = "1.25"
+    // the in-memory lookup of the benchmarks is shared with the tests
+    includeTests = true
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+    profilers = listOf("gc")
+    resultFormat = "JSON"
 }
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.intland.codebeamer.controller.rest.v2.branching.model.CreateBranchModel;
+import com.intland.codebeamer.controller.rest.v2.branching.model.CreateBranchesModel;
+import com.intland.codebeamer.controller.rest.v2.exception.BadRequestException;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceForbiddenException;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceNotFoundException;
+import com.intland.codebeamer.controller.rest.v2.model.reference.TrackerReferenceModel;
+import com.intland.codebeamer.controller.support.branch.CreateBranchParameterDto;
+import com.intland.codebeamer.persistence.dto.ProjectDto;
+import com.intland.codebeamer.persistence.dto.TrackerDto;
+import com.intland.codebeamer.persistence.dto.TrackerLayoutLabelDto;
+import com.intland.codebeamer.persistence.dto.UserDto;
+
+/**
+ * Preparation of a branch batch on a synthetic reference graph, one branch per tracker: resolving the trackers,
+ * checking the permissions, building the incoming reference index and splitting the batch into parts,
+ * then creating the parameters with the references to rewrite for each branch.
+ * The codeBeamer lookups are served by {@link InMemoryBranchingLookup}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BatchPreparationBenchmark {
+	private static final long SEED = 42;
+	private static final int PROJECT_COUNT = 10;
+
+	@Param({"10", "100", "1000"})
+	private int trackerCount;
+
+	@Param({"1", "5", "20"})
+	private int referenceFieldsPerTracker;
+
+	private final UserDto user = new UserDto();
+	private final BranchMetrics metrics = new BranchMetrics();
+	private InMemoryBranchingLookup lookup;
+	private CreateBranchesModel model;
+	private BranchBatch batch;
+
+	@Setup
+	public void setUp() throws ResourceNotFoundException, BadRequestException, ResourceForbiddenException {
+		final Random random = new Random(SEED);
+		this.lookup = new InMemoryBranchingLookup();
+
+		final List<ProjectDto> projects = new ArrayList<>();
+		for (int i = 0; i < PROJECT_COUNT; i++) {
+			final ProjectDto project = new ProjectDto();
+			project.setId(Integer.valueOf(100 + i));
+			projects.add(project);
+			this.lookup.addBranchAdminProject(project);
+		}
+
+		final List<TrackerDto> trackers = new ArrayList<>();
+		this.model = new CreateBranchesModel();
+		for (int i = 0; i < this.trackerCount; i++) {
+			final TrackerDto tracker = new TrackerDto();
+			tracker.setId(Integer.valueOf(1000 + i));
+			tracker.setName("Tracker " + i);
+			tracker.setProject(projects.get(i % PROJECT_COUNT));
+			trackers.add(tracker);
+			this.lookup.addTracker(tracker);
+
+			final TrackerReferenceModel source = new TrackerReferenceModel();
+			source.setId(tracker.getId());
+			final CreateBranchModel branch = new CreateBranchModel();
+			branch.setSource(source);
+			branch.setName("Release");
+			branch.setColor("#336699");
+			this.model.getBranches().add(branch);
+		}
+
+		// every tracker has reference fields pointing to random other trackers of the batch
+		int fieldId = 10000;
+		for (final TrackerDto referring : trackers) {
+			for (int i = 0; i < this.referenceFieldsPerTracker; i++) {
+				final TrackerLayoutLabelDto field = new TrackerLayoutLabelDto();
+				field.setId(Integer.valueOf(fieldId++));
+				field.setTrackerId(referring.getId());
+				this.lookup.addReferenceField(referring, trackers.get(random.nextInt(this.trackerCount)), field);
+			}
+		}
+
+		this.batch = prepare();
+	}
+
+	@Benchmark
+	public BranchBatch prepare() throws ResourceNotFoundException, BadRequestException, ResourceForbiddenException {
+		return BranchBatch.prepare(this.user, this.model, this.lookup, this.metrics);
+	}
+
+	@Benchmark
+	public List<List<CreateBranchParameterDto>> createParameters() {
+		return this.batch.createParameters();
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.intland.codebeamer.controller.rest.v2.exception.BadRequestException;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceForbiddenException;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceNotFoundException;
+import com.intland.codebeamer.controller.rest.v2.model.reference.TrackerReferenceModel;
+import com.intland.codebeamer.persistence.dto.BranchDto;
+import com.intland.codebeamer.persistence.dto.TrackerDto;
+import com.intland.codebeamer.persistence.dto.UserDto;
+
+/**
+ * Listing the branches of a tracker with a growing number of existing branches, as the branch listing endpoint does:
+ * the tracker lookup, the branch list cache, paging by index and by cursor and the conversion of the returned branches.
+ * The codeBeamer lookups are served by {@link InMemoryBranchingLookup}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BranchListingBenchmark {
+	private static final long SEED = 42;
+	private static final Integer TRACKER_ID = Integer.valueOf(1000);
+	private static final Integer PAGE_SIZE = Integer.valueOf(25);
+
+	@Param({"100", "1000", "10000"})
+	private int branchCount;
+
+	private final UserDto user = new UserDto();
+	private final BranchListCache cache = new BranchListCache();
+	private BranchListing listing;
+	private Integer middleId;
+
+	@Setup
+	public void setUp() {
+		final Random random = new Random(SEED);
+		final InMemoryBranchingLookup lookup = new InMemoryBranchingLookup();
+
+		final TrackerDto tracker = new TrackerDto();
+		tracker.setId(TRACKER_ID);
+		lookup.addTracker(tracker);
+
+		// the database does not return branches in id order
+		final int[] ids = new int[this.branchCount];
+		for (int i = 0; i < this.branchCount; i++) {
+			ids[i] = 2000 + i;
+		}
+		for (int i = this.branchCount - 1; i > 0; i--) {
+			final int j = random.nextInt(i + 1);
+			final int id = ids[i];
+			ids[i] = ids[j];
+			ids[j] = id;
+		}
+		for (final int id : ids) {
+			final BranchDto branch = new BranchDto();
+			branch.setId(Integer.valueOf(id));
+			branch.setTrackerIdOfBranch(TRACKER_ID);
+			branch.setName("Branch " + id);
+			branch.setKeyName("BR" + id);
+			branch.setColor("#" + Integer.toHexString(0x100000 + random.nextInt(0xefffff)));
+			branch.setDescription("Synthetic branch " + id);
+			lookup.addBranch(branch);
+		}
+
+		this.listing = new BranchListing(lookup, this.cache, new BranchMetrics());
+		this.middleId = Integer.valueOf(2000 + this.branchCount / 2);
+	}
+
+	@Benchmark
+	public List<TrackerReferenceModel> firstPage() throws ResourceNotFoundException, ResourceForbiddenException, BadRequestException {
+		return page(null, null);
+	}
+
+	@Benchmark
+	public List<TrackerReferenceModel> middlePageByIndex() throws ResourceNotFoundException, ResourceForbiddenException, BadRequestException {
+		return page(Integer.valueOf(this.branchCount / PAGE_SIZE.intValue() / 2 + 1), null);
+	}
+
+	@Benchmark
+	public List<TrackerReferenceModel> middlePageByCursor() throws ResourceNotFoundException, ResourceForbiddenException, BadRequestException {
+		return page(null, this.middleId);
+	}
+
+	@Benchmark
+	public List<TrackerReferenceModel> allBranches() throws ResourceNotFoundException, ResourceForbiddenException {
+		return this.listing.convert(this.listing.getBranchList(this.user, TRACKER_ID).getBranches());
+	}
+
+	/**
+	 * Loads the branches again, as after a branch of the tracker has been created.
+	 */
+	@Benchmark
+	public List<TrackerReferenceModel> firstPageAfterInvalidation() throws ResourceNotFoundException, ResourceForbiddenException, BadRequestException {
+		this.cache.invalidate(TRACKER_ID);
+		return page(null, null);
+	}
+
+	private List<TrackerReferenceModel> page(final Integer page, final Integer after) throws ResourceNotFoundException, ResourceForbiddenException, BadRequestException {
+		final BranchList branches = this.listing.getBranchList(this.user, TRACKER_ID);
+		return this.listing.convert(new BranchPage(branches.getBranches(), page, PAGE_SIZE, after).getBranches());
+	}
+}
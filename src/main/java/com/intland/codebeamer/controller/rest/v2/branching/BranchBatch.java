@@ -0,0 +1,216 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobStore;
+import com.intland.codebeamer.controller.rest.v2.branching.model.CreateBranchModel;
+import com.intland.codebeamer.controller.rest.v2.branching.model.CreateBranchesModel;
+import com.intland.codebeamer.controller.rest.v2.exception.BadRequestException;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceForbiddenException;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceNotFoundException;
+import com.intland.codebeamer.controller.support.branch.CreateBranchParameterDto;
+import com.intland.codebeamer.persistence.dto.BranchDto;
+import com.intland.codebeamer.persistence.dto.TrackerDto;
+import com.intland.codebeamer.persistence.dto.UserDto;
+
+/**
+ * Validated branches of a batch with the references between them, split into parts that do not rewrite references to each other.
+ */
+class BranchBatch {
+	private final Map<TrackerDto, List<BranchCreationContext>> branches;
+	private final BranchingLookup lookup;
+	private final IncomingReferenceIndex references;
+	private final List<List<BranchCreationContext>> parts;
+
+	public BranchBatch(final UserDto user, final Map<TrackerDto, List<BranchCreationContext>> branches, final BranchingLookup lookup) throws BadRequestException {
+		this.branches = branches;
+		this.lookup = lookup;
+
+		Set<Integer> trackerIds = branches.keySet().stream()
+				.map(TrackerDto::getId)
+				.collect(toSet());
+
+		this.references = IncomingReferenceIndex.build(branches.keySet(),
+				target -> lookup.getIncomingReferenceFields(user, target, trackerIds));
+
+		for (final List<BranchCreationContext> trackerBranches : branches.values()) {
+			for (final BranchCreationContext context : trackerBranches) {
+				context.checkReferringContexts(references, branches);
+			}
+		}
+
+		final List<BranchCreationContext> contexts = branches.values().stream()
+				.flatMap(List::stream)
+				.collect(toList());
+		this.parts = BranchDependencyGraph.partition(contexts,
+				context -> context.getDependencies(references, branches));
+	}
+
+	/**
+	 * Resolves and validates the branches of the request.
+	 */
+	public static BranchBatch prepare(final UserDto user, final CreateBranchesModel model, final BranchingLookup lookup, final BranchMetrics metrics)
+			throws ResourceNotFoundException, BadRequestException, ResourceForbiddenException {
+		final BranchBatchBuilder builder;
+		final long start = System.nanoTime();
+		try {
+			validateSources(model);
+
+			// resolve every source tracker before any of the branches is validated
+			final Map<Integer, TrackerDto> trackers = lookup.findTrackers(user, model.getBranches().stream()
+					.map(branchModel -> branchModel.getSource().getId())
+					.collect(toList()));
+
+			builder = new BranchBatchBuilder(user, trackers, lookup, metrics);
+			for (final CreateBranchModel branchModel : model.getBranches()) {
+				builder.add(branchModel);
+			}
+		} finally {
+			metrics.record(BranchMetrics.Timing.PREPARE_BRANCHES, start);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Checks that the request has branches and every branch has a source, the fingerprint of the request and the tracker lookup rely on it.
+	 */
+	public static void validateSources(final CreateBranchesModel model) throws BadRequestException {
+		if (model.getBranches() == null) {
+			throw new BadRequestException("Branches of the request are missing");
+		}
+		if (model.getBranches().isEmpty()) {
+			throw new BadRequestException("No branches in the request body");
+		}
+		for (int i = 0; i < model.getBranches().size(); i++) {
+			final CreateBranchModel branchModel = model.getBranches().get(i);
+			if (branchModel == null || branchModel.getSource() == null || branchModel.getSource().getId() == null) {
+				throw new BadRequestException(String.format("Source tracker of branch %d is missing", Integer.valueOf(i + 1)));
+			}
+		}
+	}
+
+	/**
+	 * @return the branch contexts by source tracker, several branches can be created from the same tracker
+	 */
+	public Map<TrackerDto, List<BranchCreationContext>> getBranches() {
+		return branches;
+	}
+
+	public IncomingReferenceIndex getReferences() {
+		return references;
+	}
+
+	/**
+	 * @return the branches by part, in the order they are created
+	 */
+	public List<List<BranchCreationContext>> getParts() {
+		return parts;
+	}
+
+	/**
+	 * @return the parameters of the branches that have not been created yet, by part
+	 */
+	public List<List<CreateBranchParameterDto>> createParameters() {
+		return parts.stream()
+			.map(part -> part.stream()
+					.filter(context -> !context.isCreated())
+					.map(context -> context.createCreateBranchParameterDto(references, branches))
+					.collect(toList()))
+			.filter(part -> !part.isEmpty())
+			.collect(toList());
+	}
+
+	/**
+	 * @return the requests of the branches by part
+	 */
+	public List<List<CreateBranchModel>> getPartModels() {
+		return parts.stream()
+			.map(part -> part.stream()
+					.map(BranchCreationContext::getBranchModel)
+					.collect(toList()))
+			.collect(toList());
+	}
+
+	/**
+	 * Marks the branches already created by the stored job, they are looked up among the branches of their source.
+	 * A branch created just before the node stopped may have no checkpoint yet, so a branch of the source with the name
+	 * of a branch without checkpoint is taken as created by the job, unless the job already knew it.
+	 * @return the branches found for the branches without checkpoint by their stored unit, to record their checkpoints
+	 */
+	public Map<BranchJobStore.StoredUnit, BranchDto> useCreatedBranches(final UserDto user, final BranchJobStore.StoredJob job) {
+		final List<BranchDto> sourceBranches = lookup.findBranches(user, branches.keySet().stream().map(TrackerDto::getId).collect(toSet()));
+		final Map<Integer, BranchDto> branchesById = sourceBranches.stream()
+				.collect(Collectors.toMap(BranchDto::getId, branch -> branch, (first, second) -> first));
+		final Set<Integer> createdIds = job.getUnits().stream()
+				.filter(BranchJobStore.StoredUnit::isCreated)
+				.map(BranchJobStore.StoredUnit::getBranchId)
+				.collect(toSet());
+		final Map<Pair<Integer, String>, BranchDto> unknownBranchesByName = sourceBranches.stream()
+				.filter(branch -> !job.getKnownBranchIds().contains(branch.getId()) && !createdIds.contains(branch.getId()))
+				.sorted(Comparator.comparing(BranchDto::getId))
+				.collect(Collectors.toMap(branch -> Pair.of(branch.getTrackerIdOfBranch(), branch.getName()), branch -> branch, (first, second) -> first));
+
+		final Map<BranchJobStore.StoredUnit, BranchDto> result = new LinkedHashMap<>();
+		for (final BranchJobStore.StoredUnit unit : job.getUnits()) {
+			final Integer sourceId = unit.getModel().getSource().getId();
+			final BranchDto createdBranch;
+			if (unit.isCreated()) {
+				createdBranch = branchesById.get(unit.getBranchId());
+			} else {
+				createdBranch = unknownBranchesByName.get(Pair.of(sourceId, unit.getModel().getName()));
+				if (createdBranch == null) {
+					continue;
+				}
+				result.put(unit, createdBranch);
+			}
+
+			branches.entrySet().stream()
+					.filter(entry -> entry.getKey().getId().equals(sourceId))
+					.flatMap(entry -> entry.getValue().stream())
+					.filter(context -> Objects.equals(context.getBranchModel().getName(), unit.getModel().getName()))
+					.forEach(context -> context.useCreatedBranch(createdBranch));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching;
+
+import static java.util.stream.Collectors.toList;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.intland.codebeamer.controller.rest.v2.branching.model.CreateBranchModel;
+import com.intland.codebeamer.controller.rest.v2.exception.BadRequestException;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceForbiddenException;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceNotFoundException;
+import com.intland.codebeamer.persistence.dto.TrackerDto;
+import com.intland.codebeamer.persistence.dto.UserDto;
+
+/**
+ * Validates the branches of a batch one by one, resolving each source tracker on its first use.
+ */
+class BranchBatchBuilder {
+	private final UserDto user;
+	private final Map<Integer, TrackerDto> trackers;
+	private final BranchingLookup lookup;
+	private final BranchMetrics metrics;
+	private final BranchingPermissions permissions;
+	private final Map<TrackerDto, List<BranchCreationContext>> branches = new LinkedHashMap<>();
+
+	/**
+	 * @param trackers the already resolved trackers by id, the trackers resolved by the builder are added
+	 */
+	public BranchBatchBuilder(final UserDto user, final Map<Integer, TrackerDto> trackers, final BranchingLookup lookup, final BranchMetrics metrics) {
+		this.user = user;
+		this.trackers = trackers;
+		this.lookup = lookup;
+		this.metrics = metrics;
+		this.permissions = new BranchingPermissions(user, lookup);
+	}
+
+	public void add(final CreateBranchModel branchModel) throws ResourceNotFoundException, BadRequestException, ResourceForbiddenException {
+		if (branchModel == null) {
+			throw new BadRequestException("Branch is missing");
+		}
+		if (branchModel.getSource() == null || branchModel.getSource().getId() == null) {
+			throw new BadRequestException("Source tracker of the branch is missing");
+		}
+
+		TrackerDto tracker = trackers.get(branchModel.getSource().getId());
+		if (tracker == null) {
+			tracker = lookup.findTracker(user, branchModel.getSource().getId());
+			trackers.put(tracker.getId(), tracker);
+		}
+
+		List<BranchCreationContext> trackerBranches = branches.computeIfAbsent(tracker, key -> new ArrayList<>());
+		if (trackerBranches.stream().anyMatch(context -> Objects.equals(context.getBranchModel().getName(), branchModel.getName()))) {
+			throw new BadRequestException(String.format("Branch %s of tracker %s is requested more than once", branchModel.getName(), tracker.getId()));
+		}
+		trackerBranches.add(new BranchCreationContext(branchModel, tracker, permissions, metrics));
+	}
+
+	public boolean isEmpty() {
+		return branches.isEmpty();
+	}
+
+	/**
+	 * @return the batch of the branches added so far, references between them are resolved now
+	 */
+	public BranchBatch build() throws BadRequestException {
+		return new BranchBatch(user, branches, lookup);
+	}
+
+	public List<CreateBranchModel> getBranchModels() {
+		return branches.values().stream()
+				.flatMap(List::stream)
+				.map(BranchCreationContext::getBranchModel)
+				.collect(toList());
+	}
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching;
+
+import static java.util.stream.Collectors.toList;
+import static org.apache.commons.lang3.StringUtils.isNotEmpty;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.intland.codebeamer.controller.rest.v2.branching.model.CreateBranchModel;
+import com.intland.codebeamer.controller.rest.v2.exception.BadRequestException;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceForbiddenException;
+import com.intland.codebeamer.controller.support.branch.BranchReferenceModel;
+import com.intland.codebeamer.controller.support.branch.BranchSupport;
+import com.intland.codebeamer.controller.support.branch.CreateBranchParameterDto;
+import com.intland.codebeamer.controller.support.branch.CreateBranchParameters;
+import com.intland.codebeamer.persistence.dto.BranchDto;
+import com.intland.codebeamer.persistence.dto.ProjectDto;
+import com.intland.codebeamer.persistence.dto.TrackerDto;
+
+/**
+ * A branch of a batch: its request, its source tracker and the branch to create, validated on construction.
+ */
+class BranchCreationContext {
+	private final CreateBranchModel branchModel;
+	private final TrackerDto tracker;
+	private final BranchMetrics metrics;
+	private BranchDto branch;
+	private boolean created;
+
+	public BranchCreationContext(CreateBranchModel branchModel, TrackerDto tracker, BranchingPermissions permissions, BranchMetrics metrics) throws BadRequestException, ResourceForbiddenException {
+		this.branchModel = branchModel;
+		this.tracker = tracker;
+		this.metrics = metrics;
+		if (tracker.isA(BranchSupport.NON_BRANCHABLE_TYPES)) {
+			throw new BadRequestException("Branch creation is not supported for this type of tracker: " + tracker.getId());
+		}
+		checkBranchingPermission(permissions);
+		branch = createBranchDto();
+	}
+
+	public CreateBranchModel getBranchModel() {
+		return branchModel;
+	}
+
+	public TrackerDto getTracker() {
+		return tracker;
+	}
+
+	/**
+	 * @return true if the branch has been created by an earlier run of the job
+	 */
+	public boolean isCreated() {
+		return created;
+	}
+
+	/**
+	 * @return the contexts of the trackers referring to this tracker and the previous branches of the same tracker,
+	 * their branches have to be created first
+	 */
+	public List<BranchCreationContext> getDependencies(IncomingReferenceIndex references, Map<TrackerDto,List<BranchCreationContext>> branches) {
+		List<BranchCreationContext> result = new ArrayList<>();
+		for (final TrackerDto referringTracker : references.getReferringTrackersByField(tracker).values()) {
+			result.addAll(getReferringContexts(branches.get(referringTracker), branches));
+		}
+
+		// branches of the same tracker are created one after another, so they do not copy the same source concurrently,
+		// each of them still reads the source on its own
+		List<BranchCreationContext> siblings = branches.get(tracker);
+		int index = siblings.indexOf(this);
+		if (index > 0) {
+			result.add(siblings.get(index - 1));
+		}
+		return result;
+	}
+
+	/**
+	 * If a single branch is created from both trackers, the references of the referring branch are rewritten to this branch.
+	 * Otherwise they are rewritten between the branches with the same name, see {@link #checkReferringContexts}.
+	 */
+	private List<BranchCreationContext> getReferringContexts(List<BranchCreationContext> candidates, Map<TrackerDto,List<BranchCreationContext>> branches) {
+		if (candidates.size() == 1 && branches.get(tracker).size() == 1) {
+			return candidates;
+		}
+		return candidates.stream()
+				.filter(candidate -> Objects.equals(candidate.branchModel.getName(), branchModel.getName()))
+				.collect(toList());
+	}
+
+	/**
+	 * Rejects the batch if the branches referring to this one cannot be paired by name: if several branches are created
+	 * from this tracker or from a referring tracker, each branch of this tracker needs a branch with the same name
+	 * in the referring tracker and each branch of the referring tracker needs one in this tracker, otherwise
+	 * the references would be rewritten to an arbitrary branch or not at all.
+	 */
+	public void checkReferringContexts(IncomingReferenceIndex references, Map<TrackerDto,List<BranchCreationContext>> branches) throws BadRequestException {
+		for (final TrackerDto referringTracker : new LinkedHashSet<>(references.getReferringTrackersByField(tracker).values())) {
+			List<BranchCreationContext> referringContexts = branches.get(referringTracker);
+			if (getReferringContexts(referringContexts, branches).isEmpty()) {
+				throw new BadRequestException(String.format(
+						"Branch %s of tracker %s needs a branch with the same name of the referring tracker %s, as several branches are created from one of them",
+						branchModel.getName(), tracker.getId(), referringTracker.getId()));
+			}
+
+			List<BranchCreationContext> siblings = branches.get(tracker);
+			if (referringContexts.size() > 1 || siblings.size() > 1) {
+				for (final BranchCreationContext referringContext : referringContexts) {
+					if (siblings.stream().noneMatch(sibling -> Objects.equals(sibling.branchModel.getName(), referringContext.branchModel.getName()))) {
+						throw new BadRequestException(String.format(
+								"Branch %s of tracker %s needs a branch with the same name of the referred tracker %s, as several branches are created from one of them",
+								referringContext.branchModel.getName(), referringTracker.getId(), tracker.getId()));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Marks the branch as created by an earlier run of the job: it is not created again,
+	 * but the references of the existing branch are still rewritten to the branches created after it.
+	 */
+	public void useCreatedBranch(BranchDto createdBranch) {
+		if (createdBranch != null) {
+			branch = createdBranch;
+		}
+		created = true;
+	}
+
+	public CreateBranchParameterDto createCreateBranchParameterDto(IncomingReferenceIndex references, Map<TrackerDto,List<BranchCreationContext>> branches) {
+		return createCreateBranchParameterDto(
+				createCreateBranchParameters(
+						getIncomingReferencesToRewrite(references, branches)));
+	}
+
+	private void checkBranchingPermission(BranchingPermissions permissions) throws ResourceForbiddenException {
+		final long start = System.nanoTime();
+		ProjectDto project = tracker.getProject();
+		boolean branchAdmin = permissions.isBranchAdmin(project);
+		metrics.record(BranchMetrics.Timing.PERMISSION_CHECK, start);
+		if(!branchAdmin) {
+			throw new ResourceForbiddenException(String.format("No permission to create branches in project %s.", project.getId()), BranchRestController.CREATE_URI);
+		}
+	}
+
+	private BranchDto createBranchDto() throws BadRequestException {
+		final BranchDto result = new BranchDto();
+		result.setName(branchModel.getName());
+		result.setKeyName(branchModel.getKeyName());
+		result.setColor(validate(branchModel.getColor()));
+		result.setDescription(branchModel.getDescription());
+		result.setProject(tracker.getProject());
+		result.setTrackerIdOfBranch(tracker.getId());
+		return result;
+	}
+
+	private String validate(String color) throws BadRequestException {
+		if(isNotEmpty(color)) {
+			try {
+				Color.decode(color);
+			} catch (Exception e) {
+				throw new BadRequestException("Invalid color: " + e.toString());
+			}
+		}
+		return color;
+	}
+
+	private Map<Integer, List<BranchDto>> getIncomingReferencesToRewrite(IncomingReferenceIndex references, Map<TrackerDto,List<BranchCreationContext>> branches) {
+		final long start = System.nanoTime();
+
+		Map<Integer, List<BranchDto>> result = new HashMap<>();
+
+		// we need to rewrite all these references, so create the reference config accordingly
+		for (final Map.Entry<Integer, List<BranchCreationContext>> entry : getReferenceRewrites(references, branches).entrySet()) {
+			// put the new branch for each tracker in the list where the key is the field
+			result.put(entry.getKey(), entry.getValue().stream().map(context -> context.branch).collect(toList()));
+		}
+
+		metrics.record(BranchMetrics.Timing.REFERENCE_REWRITES, start);
+		return result;
+	}
+
+	/**
+	 * @return the contexts of the branches whose references are rewritten to this branch, by the id of the referring field
+	 */
+	public Map<Integer, List<BranchCreationContext>> getReferenceRewrites(IncomingReferenceIndex references, Map<TrackerDto,List<BranchCreationContext>> branches) {
+		Map<Integer, List<BranchCreationContext>> result = new HashMap<>();
+		for (final Map.Entry<Integer, TrackerDto> entry : references.getReferringTrackersByField(tracker).entrySet()) {
+			List<BranchCreationContext> referringContexts = getReferringContexts(branches.get(entry.getValue()), branches);
+			if (!referringContexts.isEmpty()) {
+				result.put(entry.getKey(), referringContexts);
+			}
+		}
+		return result;
+	}
+
+	private CreateBranchParameters createCreateBranchParameters(
+			final Map<Integer, List<BranchDto>> incomingReferencesToRewriteWithNewBranches) {
+		final BranchReferenceModel refModel = new BranchReferenceModel();
+		refModel.setReplaceIncomingReferences(true);
+		refModel.setIncomingReferencesToRewriteWithNewBranches(incomingReferencesToRewriteWithNewBranches);
+
+		final CreateBranchParameters params = new CreateBranchParameters();
+		params.setBaselineId(branchModel.getBaselineId());
+		params.setBranchReferenceModel(refModel);
+		params.setInheritance(branchModel.getPermissionInheritance());
+		return params;
+	}
+
+	private CreateBranchParameterDto createCreateBranchParameterDto(final CreateBranchParameters params) {
+		final CreateBranchParameterDto param = new CreateBranchParameterDto();
+		param.setSource(tracker);
+		param.setBranchParam(branch);
+		param.setParameters(params);
+		return param;
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/**
+ * Dependencies between the branches of a batch created by the reference rewrites.
+ */
+final class BranchDependencyGraph {
+
+	private BranchDependencyGraph() {
+	}
+
+	/**
+	 * Splits the nodes into groups that do not depend on each other. Inside a group every node follows the nodes it
+	 * depends on; nodes of a dependency cycle keep their original order.
+	 *
+	 * @param nodes the nodes in their original order
+	 * @param dependencies returns the nodes that have to precede a node
+	 * @return the independent groups in the order of their first node
+	 */
+	static <T> List<List<T>> partition(final List<T> nodes, final Function<T, Collection<T>> dependencies) {
+		final Map<T, Set<T>> dependenciesByNode = new HashMap<>();
+		final Map<T, T> parents = new HashMap<>();
+		for (final T node : nodes) {
+			parents.put(node, node);
+		}
+		for (final T node : nodes) {
+			final Set<T> nodeDependencies = new LinkedHashSet<>();
+			for (final T dependency : dependencies.apply(node)) {
+				if (!dependency.equals(node) && parents.containsKey(dependency)) {
+					nodeDependencies.add(dependency);
+					parents.put(find(parents, node), find(parents, dependency));
+				}
+			}
+			dependenciesByNode.put(node, nodeDependencies);
+		}
+
+		final Map<T, List<T>> groups = new LinkedHashMap<>();
+		for (final T node : nodes) {
+			groups.computeIfAbsent(find(parents, node), root -> new ArrayList<>()).add(node);
+		}
+
+		final List<List<T>> result = new ArrayList<>(groups.size());
+		for (final List<T> group : groups.values()) {
+			result.add(order(group, dependenciesByNode));
+		}
+		return result;
+	}
+
+	private static <T> List<T> order(final List<T> group, final Map<T, Set<T>> dependenciesByNode) {
+		final Map<T, Integer> indexes = new HashMap<>();
+		final Map<T, List<T>> dependents = new HashMap<>();
+		final int[] pendingDependencyCounts = new int[group.size()];
+		for (int i = 0; i < group.size(); i++) {
+			final T node = group.get(i);
+			indexes.put(node, Integer.valueOf(i));
+			pendingDependencyCounts[i] = dependenciesByNode.get(node).size();
+			for (final T dependency : dependenciesByNode.get(node)) {
+				dependents.computeIfAbsent(dependency, key -> new ArrayList<>()).add(node);
+			}
+		}
+
+		// nodes without pending dependencies, in their original order
+		final PriorityQueue<Integer> ready = new PriorityQueue<>();
+		final TreeSet<Integer> remaining = new TreeSet<>();
+		for (int i = 0; i < group.size(); i++) {
+			remaining.add(Integer.valueOf(i));
+			if (pendingDependencyCounts[i] == 0) {
+				ready.add(Integer.valueOf(i));
+			}
+		}
+
+		final List<T> result = new ArrayList<>(group.size());
+		while (!remaining.isEmpty()) {
+			Integer next = ready.poll();
+			if (next == null) {
+				// dependency cycle, continue with the first remaining node
+				next = remaining.first();
+			} else if (!remaining.contains(next)) {
+				continue;
+			}
+
+			remaining.remove(next);
+			final T node = group.get(next.intValue());
+			result.add(node);
+			for (final T dependent : dependents.getOrDefault(node, Collections.emptyList())) {
+				final int index = indexes.get(dependent).intValue();
+				if (--pendingDependencyCounts[index] == 0) {
+					ready.add(Integer.valueOf(index));
+				}
+			}
+		}
+		return result;
+	}
+
+	private static <T> T find(final Map<T, T> parents, final T node) {
+		T root = node;
+		while (!parents.get(root).equals(root)) {
+			root = parents.get(root);
+		}
+		parents.put(node, root);
+		return root;
+	}
+}
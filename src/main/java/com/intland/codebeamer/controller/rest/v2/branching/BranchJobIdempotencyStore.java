@@ -0,0 +1,166 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Striped;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJob;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobListener;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobStore;
+import com.intland.codebeamer.controller.rest.v2.branching.model.CreateBranchModel;
+import com.intland.codebeamer.controller.rest.v2.branching.model.CreateBranchesModel;
+import com.intland.codebeamer.persistence.dto.UserDto;
+
+/**
+ * Remembers the jobs started by create-branches for a while, so that a retried request returns the already running job
+ * instead of copying the same trackers again. Requests are identified by the Idempotency-Key header if present,
+ * otherwise by a fingerprint of the normalized request, always per user. If the jobs are stored in the database,
+ * the keys are stored with them, so a retry reaching another node or arriving after a restart finds the job as well.
+ * The key of a job that has not settled yet does not expire, as its branches may still be created.
+ */
+@Component
+public class BranchJobIdempotencyStore implements BranchJobListener {
+	private static final int MAXIMUM_SIZE = 1000;
+	private static final long EXPIRE_AFTER_WRITE_MINUTES = 30;
+	private static final String FINGERPRINT = ":model:";
+
+	private final Cache<String, String> jobIdsByKey = CacheBuilder.newBuilder()
+			.maximumSize(MAXIMUM_SIZE)
+			.expireAfterWrite(EXPIRE_AFTER_WRITE_MINUTES, TimeUnit.MINUTES)
+			.build();
+
+	private final Map<String, String> unsettledJobIdsByKey = new ConcurrentHashMap<>();
+
+	private final Striped<Lock> locks = Striped.lazyWeakLock(64);
+
+	@Autowired
+	private BranchJobStore branchJobStore;
+
+	/**
+	 * @return the key of the request, the header is hashed so that the key has a bounded length
+	 */
+	public String getKey(final UserDto user, final String idempotencyKey, final CreateBranchesModel model) {
+		if (StringUtils.isNotBlank(idempotencyKey)) {
+			return user.getId() + ":key:" + Hashing.sha256().hashString(idempotencyKey.trim(), StandardCharsets.UTF_8);
+		}
+		return user.getId() + FINGERPRINT + fingerprint(model);
+	}
+
+	/**
+	 * @return true if the key is a fingerprint of the request, which may also be a deliberate repetition of an earlier request
+	 */
+	public static boolean isFingerprint(final String key) {
+		return key.contains(FINGERPRINT);
+	}
+
+	/**
+	 * Requests with the same key have to be handled while holding this lock, so that concurrent retries do not start two jobs.
+	 */
+	public Lock getLock(final String key) {
+		return this.locks.get(key);
+	}
+
+	/**
+	 * @return the id of the job started with the key that has not settled yet or has settled in the last 30 minutes,
+	 * on this node or, if the jobs are stored, on any node
+	 */
+	public String findJobId(final String key) {
+		String result = this.unsettledJobIdsByKey.get(key);
+		if (result == null) {
+			result = this.jobIdsByKey.getIfPresent(key);
+		}
+		if (result == null && this.branchJobStore.isEnabled()) {
+			result = this.branchJobStore.findJobId(key, System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(EXPIRE_AFTER_WRITE_MINUTES));
+		}
+		return result;
+	}
+
+	public void put(final String key, final BranchJob job) {
+		this.jobIdsByKey.put(key, job.getId());
+		this.unsettledJobIdsByKey.put(key, job.getId());
+		if (job.isSettled()) {
+			jobSettled(job);
+		}
+	}
+
+	/**
+	 * The key expires 30 minutes after the job has settled.
+	 */
+	@Override
+	public void jobSettled(final BranchJob job) {
+		this.unsettledJobIdsByKey.entrySet().removeIf(entry -> {
+			if (!entry.getValue().equals(job.getId())) {
+				return false;
+			}
+			this.jobIdsByKey.put(entry.getKey(), job.getId());
+			return true;
+		});
+	}
+
+	/**
+	 * Fingerprint of the branches of the request, independent of their order and of the case of the colors.
+	 */
+	static String fingerprint(final CreateBranchesModel model) {
+		final List<CreateBranchModel> branches = new ArrayList<>(model.getBranches());
+		branches.sort(Comparator.comparing((CreateBranchModel branch) -> branch.getSource().getId())
+				.thenComparing(branch -> Objects.toString(branch.getName(), "")));
+
+		final Hasher hasher = Hashing.sha256().newHasher();
+		for (final CreateBranchModel branch : branches) {
+			hasher.putString(Objects.toString(branch.getSource().getId()), StandardCharsets.UTF_8).putChar('\u0000')
+				.putString(Objects.toString(branch.getBaselineId()), StandardCharsets.UTF_8).putChar('\u0000')
+				.putString(Objects.toString(branch.getName(), ""), StandardCharsets.UTF_8).putChar('\u0000')
+				.putString(Objects.toString(branch.getKeyName(), ""), StandardCharsets.UTF_8).putChar('\u0000')
+				.putString(Objects.toString(branch.getColor(), "").toLowerCase(Locale.ENGLISH), StandardCharsets.UTF_8).putChar('\u0000')
+				.putString(Objects.toString(branch.getDescription(), ""), StandardCharsets.UTF_8).putChar('\u0000')
+				.putString(Objects.toString(branch.getPermissionInheritance()), StandardCharsets.UTF_8).putChar('\u0001');
+		}
+		return hasher.hash().toString();
+	}
+}
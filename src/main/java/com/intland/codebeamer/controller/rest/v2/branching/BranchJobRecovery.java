@@ -0,0 +1,146 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.ServletContext;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobRejectedException;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobScheduler;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobStore;
+import com.intland.codebeamer.controller.rest.v2.branching.job.DetachedHttpServletRequest;
+import com.intland.codebeamer.controller.rest.v2.exception.BadRequestException;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceForbiddenException;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceNotFoundException;
+import com.intland.codebeamer.persistence.dto.UserDto;
+
+/**
+ * Lets the nodes sharing the branch job store pick up the jobs interrupted by the restart of another node. While its
+ * scheduler is idle, a node claims the oldest interrupted job and resumes it with the request the job has been submitted
+ * with, rebuilt from the store. A job that cannot be validated any more, e.g. because one of its source trackers has been
+ * deleted since, is failed, so it is not claimed again and again.
+ */
+@Component
+public class BranchJobRecovery {
+	private static final Logger logger = LogManager.getLogger(BranchJobRecovery.class);
+
+	private static final long RECOVERY_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+	@Autowired
+	private BranchJobStore branchJobStore;
+
+	@Autowired
+	private BranchJobScheduler branchJobScheduler;
+
+	@Autowired
+	private BranchJobResumer branchJobResumer;
+
+	@Autowired
+	private BranchingLookup branchingLookup;
+
+	@Autowired
+	private ServletContext servletContext;
+
+	private ScheduledExecutorService recoverer;
+
+	@PostConstruct
+	public void start() {
+		if (!this.branchJobStore.isEnabled()) {
+			return;
+		}
+
+		this.recoverer = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("branch-job-recovery").setDaemon(true).build());
+		this.recoverer.scheduleWithFixedDelay(this::recover, RECOVERY_INTERVAL_MILLIS, RECOVERY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (this.recoverer != null) {
+			this.recoverer.shutdownNow();
+		}
+	}
+
+	private void recover() {
+		try {
+			for (final String jobId : this.branchJobStore.findInterruptedJobIds()) {
+				if (!this.branchJobScheduler.isIdle()) {
+					return;
+				}
+				recover(jobId);
+			}
+		} catch (final RuntimeException e) {
+			logger.warn("Could not recover the interrupted branch jobs", e);
+		}
+	}
+
+	private void recover(final String jobId) {
+		final BranchJobStore.StoredJob storedJob = this.branchJobStore.find(jobId);
+		final Map<String, Object> snapshot = this.branchJobStore.findRequest(jobId);
+		if (storedJob == null || !storedJob.isInterrupted() || snapshot == null || !this.branchJobStore.claim(jobId)) {
+			return;
+		}
+
+		boolean handled = false;
+		try {
+			final UserDto user = this.branchingLookup.findUser(storedJob.getUserId());
+			if (user == null) {
+				this.branchJobStore.fail(jobId, "The user of the job is not found: " + storedJob.getUserId());
+			} else {
+				this.branchJobResumer.resumeClaimed(user, storedJob, new DetachedHttpServletRequest(snapshot, this.servletContext));
+				logger.info("Resumed interrupted branch job " + jobId);
+			}
+			handled = true;
+		} catch (final BadRequestException | ResourceNotFoundException | ResourceForbiddenException e) {
+			logger.warn("Interrupted branch job " + jobId + " cannot be resumed: " + e.getMessage());
+			this.branchJobStore.fail(jobId, e.getMessage());
+			handled = true;
+		} catch (final BranchJobRejectedException e) {
+			logger.info("Interrupted branch job " + jobId + " is left for another node: " + e.getMessage());
+		} finally {
+			if (!handled) {
+				this.branchJobStore.release(jobId);
+			}
+		}
+	}
+}
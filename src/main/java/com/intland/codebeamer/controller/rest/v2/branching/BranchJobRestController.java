@@ -0,0 +1,256 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.util.UriTemplate;
+
+import com.intland.codebeamer.controller.rest.v2.AbstractRestController;
+import com.intland.codebeamer.controller.rest.v2.AbstractUserAwareRestController;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJob;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobConverter;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobEventBroadcaster;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobRegistry;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobScheduler;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobStore;
+import com.intland.codebeamer.controller.rest.v2.branching.model.BranchJobModel;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceForbiddenException;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceNotFoundException;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceUnauthorizedException;
+import com.intland.codebeamer.persistence.dto.UserDto;
+
+import io.swagger.v3.oas.annotations.OpenAPIDefinition;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+
+@OpenAPIDefinition
+@RestController
+@RequestMapping(AbstractRestController.API_URI_V3)
+@Validated
+public class BranchJobRestController extends AbstractUserAwareRestController {
+	static final String JOB_URI = "branch-jobs/{jobId}";
+	private static final String JOB_STREAM_URI = "branch-jobs/stream";
+	private static final String RELEASE_URI = "branch-jobs/{jobId}/release";
+
+	private static final int MAX_WAIT_SECONDS = 60;
+
+	@Autowired
+	private BranchJobRegistry branchJobRegistry;
+
+	@Autowired
+	private BranchJobConverter branchJobConverter;
+
+	@Autowired
+	private BranchJobScheduler branchJobScheduler;
+
+	@Autowired
+	private BranchJobEventBroadcaster branchJobEventBroadcaster;
+
+	@Autowired
+	private BranchJobStore branchJobStore;
+
+	@Autowired
+	private BranchingLookup branchingLookup;
+
+	@Operation(summary = "Fetches the status of a branch creation job", tags = "Branches")
+	@ApiResponses({
+			@ApiResponse(responseCode = "200", description = "Status and progress of the job"),
+			@ApiResponse(responseCode = "304", description = "Job has not changed since the state in If-None-Match"),
+			@ApiResponse(responseCode = "401", description = "Authorization required"),
+			@ApiResponse(responseCode = "403", description = "Access denied for one of the resources"),
+			@ApiResponse(responseCode = "404", description = "Job not found"),
+	})
+	@RequestMapping(
+			value = BranchJobRestController.JOB_URI,
+			method = RequestMethod.GET,
+			produces = MediaType.APPLICATION_JSON_VALUE
+	)
+	@ResponseBody
+	public DeferredResult<ResponseEntity<BranchJobModel>> getBranchJob(@PathVariable("jobId") final String jobId,
+			@Parameter(description = "Seconds to wait for a change of the job given in If-None-Match (max. 60)")
+			@RequestParam(value = "waitSeconds", required = false, defaultValue = "0") final int waitSeconds,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch)
+			throws ResourceUnauthorizedException, ResourceForbiddenException, ResourceNotFoundException {
+		final String uri = new UriTemplate(BranchJobRestController.JOB_URI).expand(jobId).getPath();
+		final UserDto user = this.checkUserHasPermission(uri);
+
+		final BranchJob job = this.branchJobRegistry.findJob(jobId);
+		if (job == null || !job.isOwnedBy(user)) {
+			// the job runs or ran on another node, or was interrupted
+			final DeferredResult<ResponseEntity<BranchJobModel>> result = new DeferredResult<>();
+			result.setResult(ResponseEntity.ok(this.branchJobConverter.convert(findStoredJob(jobId, user, uri))));
+			return result;
+		}
+
+		final long version = job.getVersion();
+		final String eTag = this.branchJobConverter.getETag(job);
+		final int timeout = Math.max(0, Math.min(waitSeconds, MAX_WAIT_SECONDS));
+		final DeferredResult<ResponseEntity<BranchJobModel>> result = new DeferredResult<>(
+				Long.valueOf((timeout + 1) * 1000L), notModified(eTag));
+
+		if (!matches(ifNoneMatch, eTag)) {
+			result.setResult(ok(job));
+		} else if (timeout == 0) {
+			result.setResult(notModified(eTag));
+		} else {
+			final Runnable callback = () -> result.setResult(ok(job));
+			if (job.onChangeAfter(version, callback)) {
+				result.onCompletion(() -> job.removeChangeCallback(callback));
+			} else {
+				result.setResult(ok(job));
+			}
+		}
+		return result;
+	}
+
+	@Operation(summary = "Streams the changes of the branch creation jobs of the user as server-sent events", tags = "Branches")
+	@ApiResponses({
+			@ApiResponse(responseCode = "200", description = "job-state events for the unfinished jobs, then job-started, branch-created and job-finished events as they happen"),
+			@ApiResponse(responseCode = "401", description = "Authorization required"),
+			@ApiResponse(responseCode = "403", description = "Access denied"),
+	})
+	@RequestMapping(
+			value = BranchJobRestController.JOB_STREAM_URI,
+			method = RequestMethod.GET,
+			produces = MediaType.TEXT_EVENT_STREAM_VALUE
+	)
+	public SseEmitter streamBranchJobs() throws ResourceUnauthorizedException, ResourceForbiddenException {
+		final UserDto user = this.checkUserHasPermission(BranchJobRestController.JOB_STREAM_URI);
+		return this.branchJobEventBroadcaster.subscribe(user);
+	}
+
+	@Operation(summary = "Cancels a branch creation job", tags = "Branches")
+	@ApiResponses({
+			@ApiResponse(responseCode = "200", description = "The job after cancellation, branches already handed over to the background creator are still created"),
+			@ApiResponse(responseCode = "401", description = "Authorization required"),
+			@ApiResponse(responseCode = "403", description = "Access denied for one of the resources"),
+			@ApiResponse(responseCode = "404", description = "Job not found"),
+	})
+	@RequestMapping(
+			value = BranchJobRestController.JOB_URI,
+			method = RequestMethod.DELETE,
+			produces = MediaType.APPLICATION_JSON_VALUE
+	)
+	@ResponseBody
+	public BranchJobModel cancelBranchJob(@PathVariable("jobId") final String jobId)
+			throws ResourceUnauthorizedException, ResourceForbiddenException, ResourceNotFoundException {
+		final String uri = new UriTemplate(BranchJobRestController.JOB_URI).expand(jobId).getPath();
+		final UserDto user = this.checkUserHasPermission(uri);
+
+		final BranchJob job = findJob(jobId, user, uri);
+		this.branchJobScheduler.cancel(job);
+		return this.branchJobConverter.convert(job);
+	}
+
+	@Operation(summary = "Releases a failed or cancelled branch creation job whose branches handed over to codeBeamer are not created any more", tags = "Branches")
+	@ApiResponses({
+			@ApiResponse(responseCode = "200", description = "The job has settled, it frees its slot and its request can be retried"),
+			@ApiResponse(responseCode = "401", description = "Authorization required"),
+			@ApiResponse(responseCode = "403", description = "Access denied, only system admins can release jobs"),
+			@ApiResponse(responseCode = "404", description = "Job not found on this node"),
+			@ApiResponse(responseCode = "409", description = "The job has not finished or has already settled"),
+	})
+	@RequestMapping(
+			value = BranchJobRestController.RELEASE_URI,
+			method = RequestMethod.POST,
+			produces = MediaType.APPLICATION_JSON_VALUE
+	)
+	@ResponseBody
+	public ResponseEntity<BranchJobModel> releaseBranchJob(@PathVariable("jobId") final String jobId)
+			throws ResourceUnauthorizedException, ResourceForbiddenException, ResourceNotFoundException {
+		final String uri = new UriTemplate(BranchJobRestController.RELEASE_URI).expand(jobId).getPath();
+		final UserDto user = this.checkUserHasPermission(uri);
+		if (!this.branchingLookup.isSystemAdmin(user)) {
+			throw new ResourceForbiddenException("Only system admins can release branch jobs.", uri);
+		}
+
+		// the background creator cannot be asked whether it still copies, so the admin has to know it does not
+		final BranchJob job = this.branchJobRegistry.findJob(jobId);
+		if (job == null) {
+			throw new ResourceNotFoundException("Branch job is not found on this node: " + jobId, uri);
+		}
+		if (!this.branchJobRegistry.release(job)) {
+			return ResponseEntity.status(HttpStatus.CONFLICT).body(this.branchJobConverter.convert(job));
+		}
+		return ResponseEntity.ok(this.branchJobConverter.convert(job));
+	}
+
+	private BranchJob findJob(final String jobId, final UserDto user, final String uri) throws ResourceNotFoundException {
+		final BranchJob job = this.branchJobRegistry.findJob(jobId);
+		if (job == null || !job.isOwnedBy(user)) {
+			throw new ResourceNotFoundException("Branch job is not found: " + jobId, uri);
+		}
+		return job;
+	}
+
+	private BranchJobStore.StoredJob findStoredJob(final String jobId, final UserDto user, final String uri) throws ResourceNotFoundException {
+		final BranchJobStore.StoredJob job = this.branchJobStore.find(jobId);
+		if (job == null || !job.getUserId().equals(user.getId())) {
+			throw new ResourceNotFoundException("Branch job is not found: " + jobId, uri);
+		}
+		return job;
+	}
+
+	private ResponseEntity<BranchJobModel> ok(final BranchJob job) {
+		final String eTag = this.branchJobConverter.getETag(job);
+		return ResponseEntity.ok().eTag(eTag).body(this.branchJobConverter.convert(job));
+	}
+
+	private static ResponseEntity<BranchJobModel> notModified(final String eTag) {
+		return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+	}
+
+	private static boolean matches(final String ifNoneMatch, final String eTag) {
+		return StringUtils.isNotBlank(ifNoneMatch) && Arrays.stream(ifNoneMatch.split(","))
+				.map(String::trim)
+				.map(tag -> StringUtils.removeStart(tag, "W/"))
+				.anyMatch(tag -> tag.equals(eTag) || tag.equals("*"));
+	}
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching;
+
+import static java.util.stream.Collectors.toList;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJob;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobRegistry;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobRejectedException;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobScheduler;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobStore;
+import com.intland.codebeamer.controller.rest.v2.branching.job.DetachedHttpServletRequest;
+import com.intland.codebeamer.controller.rest.v2.branching.model.CreateBranchesModel;
+import com.intland.codebeamer.controller.rest.v2.exception.BadRequestException;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceForbiddenException;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceNotFoundException;
+import com.intland.codebeamer.controller.support.branch.CreateBranchParameterDto;
+import com.intland.codebeamer.persistence.dto.UserDto;
+
+/**
+ * Resumes interrupted stored jobs on this node, on request of their owner or of the {@link BranchJobRecovery}.
+ * The branches of the job are validated again and only the branches not created yet are handed over.
+ */
+@Component
+public class BranchJobResumer {
+
+	@Autowired
+	private BranchJobStore branchJobStore;
+
+	@Autowired
+	private BranchJobRegistry branchJobRegistry;
+
+	@Autowired
+	private BranchJobScheduler branchJobScheduler;
+
+	@Autowired
+	private BranchingLookup branchingLookup;
+
+	@Autowired
+	private BranchMetrics branchMetrics;
+
+	/**
+	 * Resumes a job claimed by this node, see {@link BranchJobStore#claim}. If the job cannot be resumed, the caller releases
+	 * or fails the claim.
+	 * @param user the owner of the job
+	 * @param request the request the parts of the job are handed over with, stored in place of the earlier one
+	 * @return the job running on this node, or null if every branch had already been created and the stored job has been completed
+	 */
+	public BranchJob resumeClaimed(final UserDto user, final BranchJobStore.StoredJob storedJob, final DetachedHttpServletRequest request)
+			throws ResourceNotFoundException, BadRequestException, ResourceForbiddenException, BranchJobRejectedException {
+		final String jobId = storedJob.getId();
+		final CreateBranchesModel model = new CreateBranchesModel();
+		model.setBranches(storedJob.getUnits().stream().map(BranchJobStore.StoredUnit::getModel).collect(toList()));
+		final BranchBatch batch = BranchBatch.prepare(user, model, this.branchingLookup, this.branchMetrics);
+		batch.useCreatedBranches(user, storedJob).forEach((unit, branch) -> this.branchJobStore.recordBranch(jobId,
+				unit.getModel().getSource().getId(), unit.getModel().getName(), branch.getId()));
+
+		final List<List<CreateBranchParameterDto>> parameters = batch.createParameters();
+		if (parameters.isEmpty()) {
+			this.branchJobStore.complete(jobId);
+			return null;
+		}
+
+		this.branchJobStore.saveRequest(jobId, request);
+		final BranchJob job = this.branchJobRegistry.register(jobId, user, parameters);
+		try {
+			this.branchJobScheduler.submit(job, request, storedJob.getPriority());
+		} catch (final BranchJobRejectedException e) {
+			this.branchJobRegistry.unregister(job);
+			throw e;
+		}
+		return job;
+	}
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.intland.codebeamer.persistence.dto.BranchDto;
+
+/**
+ * Loaded branches of a tracker together with their strong ETag and the fingerprint of each branch, used to compute
+ * the changes between two listings. The branches are converted only when they are returned, so a page converts
+ * only the branches on it.
+ */
+public class BranchList {
+	private final List<BranchDto> branches;
+	private final String eTag;
+	private final Map<Integer, Long> fingerprints;
+
+	BranchList(final List<BranchDto> branches) {
+		this(branches, eTagOf(branches));
+	}
+
+	BranchList(final List<BranchDto> branches, final String eTag) {
+		this.branches = Collections.unmodifiableList(branches);
+		this.eTag = eTag;
+		this.fingerprints = Collections.unmodifiableMap(fingerprintsOf(branches));
+	}
+
+	public List<BranchDto> getBranches() {
+		return this.branches;
+	}
+
+	/**
+	 * @return strong ETag of the whole list
+	 */
+	public String getETag() {
+		return this.eTag;
+	}
+
+	/**
+	 * @return strong ETag of a part of the list, e.g. a page, identified by the variant
+	 */
+	public String getETag(final String variant) {
+		return this.eTag.substring(0, this.eTag.length() - 1) + "-" + variant + "\"";
+	}
+
+	/**
+	 * @return fingerprint of each branch by branch id
+	 */
+	public Map<Integer, Long> getFingerprints() {
+		return this.fingerprints;
+	}
+
+	/**
+	 * Computes the ETag from the properties of the branches that are part of their references.
+	 */
+	static String eTagOf(final List<BranchDto> branches) {
+		final Hasher hasher = Hashing.murmur3_128().newHasher();
+		for (final BranchDto branch : branches) {
+			putBranch(hasher, branch);
+		}
+		return "\"" + branches.size() + "-" + hasher.hash() + "\"";
+	}
+
+	/**
+	 * Computes the fingerprint of each branch from the same properties as the ETag.
+	 */
+	static Map<Integer, Long> fingerprintsOf(final List<BranchDto> branches) {
+		final Map<Integer, Long> result = new LinkedHashMap<>();
+		for (final BranchDto branch : branches) {
+			result.put(branch.getId(), Long.valueOf(putBranch(Hashing.murmur3_128().newHasher(), branch).hash().asLong()));
+		}
+		return result;
+	}
+
+	private static Hasher putBranch(final Hasher hasher, final BranchDto branch) {
+		return hasher.putInt(Objects.hashCode(branch.getId()))
+			.putInt(Objects.hashCode(branch.getTrackerIdOfBranch()))
+			.putString(Objects.toString(branch.getName(), ""), StandardCharsets.UTF_8)
+			.putString(Objects.toString(branch.getKeyName(), ""), StandardCharsets.UTF_8)
+			.putString(Objects.toString(branch.getColor(), ""), StandardCharsets.UTF_8)
+			.putString(Objects.toString(branch.getDescription(), ""), StandardCharsets.UTF_8);
+	}
+}
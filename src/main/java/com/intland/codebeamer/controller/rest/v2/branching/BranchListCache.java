@@ -0,0 +1,103 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJob;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobListener;
+import com.intland.codebeamer.persistence.dto.UserDto;
+
+/**
+ * Bounded cache of the loaded branch lists of trackers.
+ * Entries are kept per tracker and user, because the branches visible in a list depend on the permissions of the user.
+ * An entry is only returned while its ETag matches the ETag of the branches just loaded, so changes made from the UI
+ * or on other nodes show up at once. It saves computing the fingerprints of an unchanged list again, the branches are
+ * still loaded for every listing. The branches of a tracker are dropped when a branch job of this node creates a branch of it.
+ */
+@Component
+public class BranchListCache implements BranchJobListener {
+	private static final int MAXIMUM_SIZE = 2000;
+	private static final long EXPIRE_AFTER_WRITE_MINUTES = 5;
+
+	private final Cache<Pair<Integer, Integer>, BranchList> cache = CacheBuilder.newBuilder()
+			.maximumSize(MAXIMUM_SIZE)
+			.expireAfterWrite(EXPIRE_AFTER_WRITE_MINUTES, TimeUnit.MINUTES)
+			.recordStats()
+			.build();
+
+	/**
+	 * @param eTag ETag of the current branches of the tracker
+	 * @param loader creates the list of the current branches, called if the cached list is missing or outdated
+	 */
+	public BranchList get(final UserDto user, final Integer trackerId, final String eTag, final Supplier<BranchList> loader) {
+		final Pair<Integer, Integer> key = key(user, trackerId);
+		BranchList result = this.cache.getIfPresent(key);
+		if (result == null || !result.getETag().equals(eTag)) {
+			result = loader.get();
+			this.cache.put(key, result);
+		}
+		return result;
+	}
+
+	public void invalidate(final Integer trackerId) {
+		this.cache.asMap().keySet().removeIf(key -> key.getLeft().equals(trackerId));
+	}
+
+	public CacheStats getStats() {
+		return this.cache.stats();
+	}
+
+	public long size() {
+		return this.cache.size();
+	}
+
+	@Override
+	public void branchCreated(final BranchJob job, final BranchJob.Unit unit) {
+		invalidate(unit.getSource().getId());
+	}
+
+	@Override
+	public void jobFinished(final BranchJob job) {
+		job.getUnits().forEach(unit -> invalidate(unit.getSource().getId()));
+	}
+
+	private static Pair<Integer, Integer> key(final UserDto user, final Integer trackerId) {
+		return Pair.of(trackerId, user.getId());
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceForbiddenException;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceNotFoundException;
+import com.intland.codebeamer.controller.rest.v2.model.reference.TrackerReferenceModel;
+import com.intland.codebeamer.persistence.dto.BranchDto;
+import com.intland.codebeamer.persistence.dto.UserDto;
+
+/**
+ * Loads the branch lists of trackers and converts the branches returned to the client. The branches are loaded for every
+ * listing, so ETags and cursors always reflect the current branches, the {@link BranchListCache} keeps unchanged lists.
+ */
+@Component
+public class BranchListing {
+
+	@Autowired
+	private BranchingLookup lookup;
+
+	@Autowired
+	private BranchListCache branchListCache;
+
+	@Autowired
+	private BranchMetrics branchMetrics;
+
+	public BranchListing() {
+	}
+
+	BranchListing(final BranchingLookup lookup, final BranchListCache branchListCache, final BranchMetrics branchMetrics) {
+		this.lookup = lookup;
+		this.branchListCache = branchListCache;
+		this.branchMetrics = branchMetrics;
+	}
+
+	/**
+	 * @return the branches of the tracker, after checking that the user can read the tracker
+	 */
+	public BranchList getBranchList(final UserDto user, final Integer trackerId) throws ResourceNotFoundException, ResourceForbiddenException {
+		this.lookup.findTracker(user, trackerId);
+		return toBranchList(user, trackerId, findBranches(user, Collections.singletonList(trackerId)));
+	}
+
+	/**
+	 * @return the branches of the trackers in the order of the ids, the trackers have to be checked by the caller
+	 */
+	public Map<Integer, BranchList> getBranchLists(final UserDto user, final Collection<Integer> trackerIds) {
+		final Map<Integer, List<BranchDto>> branchesByTracker = new LinkedHashMap<>();
+		trackerIds.forEach(trackerId -> branchesByTracker.put(trackerId, new ArrayList<>()));
+		for (final BranchDto branch : findBranches(user, trackerIds)) {
+			final List<BranchDto> trackerBranches = branchesByTracker.get(branch.getTrackerIdOfBranch());
+			if (trackerBranches != null) {
+				trackerBranches.add(branch);
+			}
+		}
+
+		final Map<Integer, BranchList> result = new LinkedHashMap<>();
+		branchesByTracker.forEach((trackerId, branches) -> result.put(trackerId, toBranchList(user, trackerId, branches)));
+		return result;
+	}
+
+	public List<BranchDto> findBranches(final UserDto user, final Collection<Integer> trackerIds) {
+		final long start = System.nanoTime();
+		try {
+			return this.lookup.findBranches(user, trackerIds);
+		} finally {
+			this.branchMetrics.record(BranchMetrics.Timing.BRANCH_LOOKUP, start);
+		}
+	}
+
+	public List<TrackerReferenceModel> convert(final List<BranchDto> branches) {
+		final long start = System.nanoTime();
+		try {
+			return branches.stream()
+					.map(this.lookup::convert)
+					.collect(Collectors.toList());
+		} finally {
+			this.branchMetrics.record(BranchMetrics.Timing.BRANCH_CONVERSION, start);
+		}
+	}
+
+	public TrackerReferenceModel convert(final BranchDto branch) {
+		return this.lookup.convert(branch);
+	}
+
+	/**
+	 * @return the cached list of the tracker if the branches have not changed since it was loaded, otherwise a list of the branches
+	 */
+	private BranchList toBranchList(final UserDto user, final Integer trackerId, final List<BranchDto> branches) {
+		final String eTag = BranchList.eTagOf(branches);
+		return this.branchListCache.get(user, trackerId, eTag, () -> new BranchList(branches, eTag));
+	}
+}
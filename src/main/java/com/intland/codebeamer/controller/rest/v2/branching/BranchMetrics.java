@@ -0,0 +1,192 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.CacheStats;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJob;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobListener;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobScheduler;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobStatus;
+
+/**
+ * Timers and counters of the hot paths of the branching extension, rendered in the Prometheus text format.
+ * Timers are exported as summaries (count and sum of seconds) with the maximum as a separate gauge,
+ * created branches as a counter, so the rate can be computed by the monitoring system.
+ */
+@Component
+public class BranchMetrics implements BranchJobListener {
+
+	public enum Timing {
+		PREPARE_BRANCHES("branching_prepare_branches_seconds", "Time spent resolving and validating the branches of a batch"),
+		PERMISSION_CHECK("branching_permission_check_seconds", "Time spent checking the branching permission of a source tracker"),
+		REFERENCE_REWRITES("branching_reference_rewrites_seconds", "Time spent collecting the incoming references to rewrite for a branch"),
+		BRANCH_LOOKUP("branching_branch_lookup_seconds", "Time spent loading branches from the database"),
+		BRANCH_CONVERSION("branching_branch_conversion_seconds", "Time spent converting loaded branches to the REST model"),
+		JOB_QUEUE_WAIT("branching_job_queue_wait_seconds", "Time branch jobs spent waiting in the queue"),
+		JOB_RUN("branching_job_run_seconds", "Time branch jobs spent running until they finished");
+
+		private final String name;
+		private final String help;
+
+		Timing(final String name, final String help) {
+			this.name = name;
+			this.help = help;
+		}
+	}
+
+	private static class Timer {
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		void record(final long nanos) {
+			this.count.increment();
+			this.totalNanos.add(nanos);
+			this.maxNanos.accumulateAndGet(nanos, Math::max);
+		}
+	}
+
+	@Autowired
+	private BranchJobScheduler branchJobScheduler;
+
+	@Autowired
+	private BranchListCache branchListCache;
+
+	private final Map<Timing, Timer> timers = new EnumMap<>(Timing.class);
+	private final LongAdder createdBranches = new LongAdder();
+	private final Map<BranchJobStatus, LongAdder> finishedJobs = new EnumMap<>(BranchJobStatus.class);
+
+	public BranchMetrics() {
+		for (final Timing timing : Timing.values()) {
+			this.timers.put(timing, new Timer());
+		}
+		for (final BranchJobStatus status : BranchJobStatus.values()) {
+			if (status.isFinished()) {
+				this.finishedJobs.put(status, new LongAdder());
+			}
+		}
+	}
+
+	/**
+	 * @param startNanos the value of {@link System#nanoTime()} when the timed operation started
+	 */
+	public void record(final Timing timing, final long startNanos) {
+		this.timers.get(timing).record(System.nanoTime() - startNanos);
+	}
+
+	@Override
+	public void jobStarted(final BranchJob job) {
+		this.timers.get(Timing.JOB_QUEUE_WAIT).record(
+				TimeUnit.MILLISECONDS.toNanos(job.getStartedAt().getTime() - job.getSubmittedAt().getTime()));
+	}
+
+	@Override
+	public void branchCreated(final BranchJob job, final BranchJob.Unit unit) {
+		this.createdBranches.increment();
+	}
+
+	@Override
+	public void jobFinished(final BranchJob job) {
+		final LongAdder counter = this.finishedJobs.get(job.getStatus());
+		if (counter != null) {
+			counter.increment();
+		}
+		if (job.getStartedAt() != null && job.getFinishedAt() != null) {
+			this.timers.get(Timing.JOB_RUN).record(
+					TimeUnit.MILLISECONDS.toNanos(job.getFinishedAt().getTime() - job.getStartedAt().getTime()));
+		}
+	}
+
+	/**
+	 * @return every metric in the Prometheus text exposition format
+	 */
+	public String toPrometheusText() {
+		final StringBuilder result = new StringBuilder();
+		for (final Map.Entry<Timing, Timer> entry : this.timers.entrySet()) {
+			final Timing timing = entry.getKey();
+			final Timer timer = entry.getValue();
+			header(result, timing.name, timing.help, "summary");
+			sample(result, timing.name + "_count", timer.count.sum());
+			sample(result, timing.name + "_sum", toSeconds(timer.totalNanos.sum()));
+			header(result, timing.name + "_max", "Maximum of " + timing.name, "gauge");
+			sample(result, timing.name + "_max", toSeconds(timer.maxNanos.get()));
+		}
+
+		header(result, "branching_branches_created_total", "Branches created by branch jobs", "counter");
+		sample(result, "branching_branches_created_total", this.createdBranches.sum());
+
+		header(result, "branching_jobs_finished_total", "Finished branch jobs by final status", "counter");
+		this.finishedJobs.forEach((status, count) -> sample(result,
+				"branching_jobs_finished_total{status=\"" + status.name().toLowerCase(Locale.ENGLISH) + "\"}", count.sum()));
+
+		header(result, "branching_jobs_queued", "Branch jobs waiting in the queue", "gauge");
+		sample(result, "branching_jobs_queued", this.branchJobScheduler.getQueuedJobCount());
+		header(result, "branching_jobs_running", "Branch jobs running", "gauge");
+		sample(result, "branching_jobs_running", this.branchJobScheduler.getRunningJobCount());
+
+		final CacheStats stats = this.branchListCache.getStats();
+		header(result, "branching_branch_cache_requests_total", "Requests of the branch list cache by result", "counter");
+		sample(result, "branching_branch_cache_requests_total{result=\"hit\"}", stats.hitCount());
+		sample(result, "branching_branch_cache_requests_total{result=\"miss\"}", stats.missCount());
+		header(result, "branching_branch_cache_evictions_total", "Evictions of the branch list cache", "counter");
+		sample(result, "branching_branch_cache_evictions_total", stats.evictionCount());
+		header(result, "branching_branch_cache_size", "Entries of the branch list cache", "gauge");
+		sample(result, "branching_branch_cache_size", this.branchListCache.size());
+		return result.toString();
+	}
+
+	private static void header(final StringBuilder result, final String name, final String help, final String type) {
+		result.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		result.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(final StringBuilder result, final String name, final long value) {
+		result.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void sample(final StringBuilder result, final String name, final double value) {
+		result.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static double toSeconds(final long nanos) {
+		return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+	}
+}
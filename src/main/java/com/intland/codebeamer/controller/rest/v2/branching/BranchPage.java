@@ -0,0 +1,90 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.intland.codebeamer.controller.rest.v2.exception.BadRequestException;
+import com.intland.codebeamer.persistence.dto.BranchDto;
+
+/**
+ * A page of branches ordered by id, selected either by page index or by the id of the last branch of the previous page.
+ */
+class BranchPage {
+	private static final int DEFAULT_PAGE_SIZE = 25;
+	private static final int MAX_PAGE_SIZE = 500;
+
+	private final List<BranchDto> branches;
+	private final int pageSize;
+	private final boolean hasNext;
+
+	BranchPage(List<BranchDto> allBranches, Integer page, Integer pageSize, Integer after) throws BadRequestException {
+		this.pageSize = pageSize != null ? pageSize.intValue() : DEFAULT_PAGE_SIZE;
+		if (this.pageSize < 1 || this.pageSize > MAX_PAGE_SIZE) {
+			throw new BadRequestException(String.format("pageSize must be between 1 and %d", MAX_PAGE_SIZE));
+		}
+		if (page != null && page.intValue() < 1) {
+			throw new BadRequestException("page must be greater than 0");
+		}
+		if (page != null && after != null) {
+			throw new BadRequestException("page and after cannot be used together");
+		}
+
+		final List<BranchDto> candidates = allBranches.stream()
+				.filter(branch -> after == null || branch.getId().intValue() > after.intValue())
+				.sorted(Comparator.comparing(BranchDto::getId))
+				.collect(Collectors.toList());
+
+		// computed in long, a large page index would overflow int and select a page from the start
+		final int from = (int) Math.min(candidates.size(), page != null ? (page.longValue() - 1) * this.pageSize : 0L);
+		final int to = (int) Math.min(candidates.size(), (long) from + this.pageSize);
+		this.branches = candidates.subList(from, to);
+		this.hasNext = to < candidates.size();
+	}
+
+	public List<BranchDto> getBranches() {
+		return branches;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public boolean hasNext() {
+		return hasNext;
+	}
+
+	public Integer getLastId() {
+		return branches.isEmpty() ? null : branches.get(branches.size() - 1).getId();
+	}
+}
@@ -32,62 +32,87 @@ package com.intland.codebeamer.controller.rest.v2.branching;
 
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
-import static org.apache.commons.lang3.StringUtils.isNotEmpty;
 
-import java.awt.Color;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.servlet.http.HttpServletRequest;
 
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 import org.springframework.web.util.UriTemplate;
 
-import com.google.common.collect.Multimap;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.CacheStats;
 import com.intland.codebeamer.controller.rest.v2.AbstractRestController;
 import com.intland.codebeamer.controller.rest.v2.AbstractUserAwareRestController;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJob;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobConverter;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobPriority;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobRegistry;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobRejectedException;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobScheduler;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobStore;
+import com.intland.codebeamer.controller.rest.v2.branching.job.DetachedHttpServletRequest;
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobStatus;
+import com.intland.codebeamer.controller.rest.v2.branching.model.BranchCacheStatisticsModel;
+import com.intland.codebeamer.controller.rest.v2.branching.model.BranchChangesModel;
+import com.intland.codebeamer.controller.rest.v2.branching.model.BranchJobModel;
+import com.intland.codebeamer.controller.rest.v2.branching.model.BranchTreeNodeModel;
 import com.intland.codebeamer.controller.rest.v2.branching.model.CreateBranchModel;
 import com.intland.codebeamer.controller.rest.v2.branching.model.CreateBranchesModel;
-import com.intland.codebeamer.controller.rest.v2.converter.reference.TrackerReferenceConverter;
+import com.intland.codebeamer.controller.rest.v2.branching.model.FindBranchesModel;
 import com.intland.codebeamer.controller.rest.v2.exception.BadRequestException;
 import com.intland.codebeamer.controller.rest.v2.exception.ResourceForbiddenException;
 import com.intland.codebeamer.controller.rest.v2.exception.ResourceNotFoundException;
 import com.intland.codebeamer.controller.rest.v2.exception.ResourceUnauthorizedException;
-import com.intland.codebeamer.controller.rest.v2.model.base.IdentifiableModel;
 import com.intland.codebeamer.controller.rest.v2.model.reference.TrackerReferenceModel;
-import com.intland.codebeamer.controller.rest.v2.support.TrackerRestSupport;
-import com.intland.codebeamer.controller.support.branch.BranchReferenceModel;
 import com.intland.codebeamer.controller.support.branch.BranchSupport;
-import com.intland.codebeamer.controller.support.branch.CreateBranchParameterDto;
-import com.intland.codebeamer.controller.support.branch.CreateBranchParameters;
-import com.intland.codebeamer.controller.support.branch.jobs.BackgroundBranchCreator;
-import com.intland.codebeamer.persistence.dao.BranchDao;
-import com.intland.codebeamer.persistence.dao.impl.EntityCache;
 import com.intland.codebeamer.persistence.dto.BranchDto;
-import com.intland.codebeamer.persistence.dto.ProjectDto;
-import com.intland.codebeamer.persistence.dto.ProjectPermission;
 import com.intland.codebeamer.persistence.dto.TrackerDto;
-import com.intland.codebeamer.persistence.dto.TrackerLayoutLabelDto;
 import com.intland.codebeamer.persistence.dto.UserDto;
 
 import io.swagger.v3.oas.annotations.OpenAPIDefinition;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 
@@ -96,30 +121,82 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 @RequestMapping(AbstractRestController.API_URI_V3)
 @Validated
 public class BranchRestController extends AbstractUserAwareRestController {
-	private static final String CREATE_URI = "create-branches";
+	static final String CREATE_URI = "create-branches";
+	private static final String RESUME_URI = "branch-jobs/{jobId}/resume";
+	private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
 	private static final String GET_BRANCHES_URI = "trackers/{trackerId}/branches";
+	private static final String GET_BRANCH_CHANGES_URI = "trackers/{trackerId}/branches/changes";
+	private static final String FIND_BRANCHES_URI = "trackers/branches";
+	private static final String GET_BRANCH_TREE_URI = "trackers/{trackerId}/branch-tree";
+	private static final String CACHE_STATISTICS_URI = "branches/cache-statistics";
+	private static final String METRICS_URI = "branches/metrics";
+	private static final String PROMETHEUS_MEDIA_TYPE = "text/plain; version=0.0.4";
+	private static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+	private static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+	private static final int MAX_TRACKERS = 500;
+	private static final int MAX_TREE_DEPTH = 20;
 
 	@Autowired
 	private BranchSupport branchSupport;
 
 	@Autowired
-	private BackgroundBranchCreator branchCreator;
+	private BranchJobScheduler branchJobScheduler;
 
 	@Autowired
-	private TrackerRestSupport trackerRestSupport;
+	private BranchJobIdempotencyStore idempotencyStore;
 
 	@Autowired
-	private BranchDao branchDao;
+	private BranchJobRegistry branchJobRegistry;
 
 	@Autowired
-	private TrackerReferenceConverter trackerReferenceConverter;
+	private BranchJobConverter branchJobConverter;
+
+	@Autowired
+	private BranchingLookup branchingLookup;
+
+	@Autowired
+	private BranchJobResumer branchJobResumer;
+
+	@Autowired
+	private BranchListing branchListing;
+
+	@Autowired
+	private BranchListCache branchListCache;
+
+	@Autowired
+	private BranchSnapshotStore branchSnapshotStore;
+
+	@Autowired
+	private BranchMetrics branchMetrics;
+
+	@Autowired
+	private BranchJobStore branchJobStore;
+
+	private ObjectMapper ndjsonMapper;
+
+	/**
+	 * The NDJSON endpoints read and write the models with the object mapper of the MVC message converters,
+	 * so they accept and produce the same JSON as the other endpoints.
+	 */
+	@Autowired
+	void setNdjsonMapper(final ObjectProvider<RequestMappingHandlerAdapter> handlerAdapters) {
+		this.ndjsonMapper = handlerAdapters.orderedStream()
+				.flatMap(adapter -> adapter.getMessageConverters().stream())
+				.filter(MappingJackson2HttpMessageConverter.class::isInstance)
+				.map(converter -> ((MappingJackson2HttpMessageConverter) converter).getObjectMapper().copy())
+				.findFirst()
+				.orElseGet(() -> Jackson2ObjectMapperBuilder.json().build())
+				.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+	}
 
 	@Operation(summary = "Creates branches asynchronously", tags = "Branches")
 	@ApiResponses({
-			@ApiResponse(responseCode = "202", description = "Branch creation process has started"),
+			@ApiResponse(responseCode = "202", description = "Branch creation process has started or had already been started by the same request, Location points to the job"),
+			@ApiResponse(responseCode = "400", description = "One of the branches is invalid, or branches referring to each other cannot be paired by name"),
 			@ApiResponse(responseCode = "401", description = "Authorization required"),
 			@ApiResponse(responseCode = "403", description = "Access denied for one of the resources"),
 			@ApiResponse(responseCode = "404", description = "One of the resources is not found"),
+			@ApiResponse(responseCode = "429", description = "Too many branch jobs are waiting, retry after the seconds in Retry-After"),
 	})
 	@RequestMapping(
 			value = BranchRestController.CREATE_URI,
@@ -128,7 +205,10 @@ public class BranchRestController extends AbstractUserAwareRestController {
 			produces = MediaType.APPLICATION_JSON_VALUE
 	)
 	@ResponseBody
-	public ResponseEntity<Void> asyncCreateBranches(@RequestBody final CreateBranchesModel model, final HttpServletRequest request)
+	public ResponseEntity<BranchJobModel> asyncCreateBranches(@RequestBody final CreateBranchesModel model,
+			@Parameter(description = "Retries with the same key return the job of the first request instead of starting a new one")
+			@RequestHeader(value = BranchRestController.IDEMPOTENCY_KEY_HEADER, required = false) final String idempotencyKey,
+			final HttpServletRequest request)
 			throws ResourceUnauthorizedException, ResourceForbiddenException, ResourceNotFoundException, BadRequestException {
 		final String uri = BranchRestController.CREATE_URI;
 		final UserDto user = this.checkUserHasPermission(uri);
@@ -137,164 +217,589 @@ public class BranchRestController extends AbstractUserAwareRestController {
 			throw new ResourceForbiddenException("Missing branching license.", uri);
 		}
 
-		this.branchCreator.createMultipleBranchesInBackground(request, user, this.prepareParameters(user, model), false);
-
-		return ResponseEntity.status(HttpStatus.ACCEPTED).body(null);
+		BranchBatch.validateSources(model);
+		return createJob(user, this.idempotencyStore.getKey(user, idempotencyKey, model),
+				() -> BranchBatch.prepare(user, model, this.branchingLookup, this.branchMetrics), model.getPriority(), request);
 	}
 
-	@Operation(summary = "Fetches branches of a tracker", tags = "Branches")
+	@Operation(summary = "Creates branches asynchronously from newline delimited JSON, one branch per line", tags = "Branches")
 	@ApiResponses({
-			@ApiResponse(responseCode = "200", description = "List of branches as TrackerReferences"),
+			@ApiResponse(responseCode = "202", description = "Branch creation process has started or had already been started by the same request, Location points to the job"),
+			@ApiResponse(responseCode = "400", description = "A line cannot be parsed or describes an invalid branch, the lines after it are not read"),
 			@ApiResponse(responseCode = "401", description = "Authorization required"),
 			@ApiResponse(responseCode = "403", description = "Access denied for one of the resources"),
-			@ApiResponse(responseCode = "404", description = "Tracker not found"),
+			@ApiResponse(responseCode = "404", description = "One of the resources is not found"),
+			@ApiResponse(responseCode = "429", description = "Too many branch jobs are waiting, retry after the seconds in Retry-After"),
 	})
 	@RequestMapping(
-			value = BranchRestController.GET_BRANCHES_URI,
-			method = RequestMethod.GET,
+			value = BranchRestController.CREATE_URI,
+			method = RequestMethod.POST,
+			consumes = BranchRestController.NDJSON_MEDIA_TYPE,
 			produces = MediaType.APPLICATION_JSON_VALUE
 	)
 	@ResponseBody
-	public List<TrackerReferenceModel> getBranches(@PathVariable("trackerId") final Integer trackerId)
-			throws ResourceUnauthorizedException, ResourceForbiddenException, ResourceNotFoundException {
-		final String uri = new UriTemplate(BranchRestController.GET_BRANCHES_URI).expand(trackerId).getPath();
+	public ResponseEntity<BranchJobModel> asyncCreateBranchesFromStream(
+			@Parameter(description = "Priority of the job in the queue, HIGH is reserved to the admins of the source projects")
+			@RequestParam(value = "priority", required = false) final BranchJobPriority priority,
+			@Parameter(description = "Retries with the same key return the job of the first request instead of starting a new one")
+			@RequestHeader(value = BranchRestController.IDEMPOTENCY_KEY_HEADER, required = false) final String idempotencyKey,
+			final HttpServletRequest request)
+			throws ResourceUnauthorizedException, ResourceForbiddenException, ResourceNotFoundException, BadRequestException, IOException {
+		final String uri = BranchRestController.CREATE_URI;
 		final UserDto user = this.checkUserHasPermission(uri);
 
-		this.trackerRestSupport.findTracker(trackerId, user);
+		if(!branchSupport.hasBranchingLicense()) {
+			throw new ResourceForbiddenException("Missing branching license.", uri);
+		}
 
-		return this.branchDao.findByTrackers(user, Collections.singletonList(trackerId)).stream()
-				.map(this.trackerReferenceConverter::convert)
-				.collect(Collectors.toList());
+		// the body is not read at all if the job would not fit into the queue
+		try {
+			this.branchJobScheduler.checkCapacity();
+		} catch (final BranchJobRejectedException e) {
+			return tooManyRequests(e);
+		}
+
+		final BranchBatchBuilder builder = readBranches(user, request.getInputStream());
+		final CreateBranchesModel model = new CreateBranchesModel();
+		model.setBranches(builder.getBranchModels());
+
+		return createJob(user, this.idempotencyStore.getKey(user, idempotencyKey, model),
+				builder::build, priority, request);
 	}
 
-	private class BranchCreationContext {
-		private final CreateBranchModel branchModel;
-		private final TrackerDto tracker;
-		private final BranchDto branch;
-		private final UserDto user;
-
-		public BranchCreationContext(CreateBranchModel branchModel, UserDto user) throws ResourceNotFoundException, BadRequestException, ResourceForbiddenException {
-			this.branchModel = branchModel;
-			this.user = user;
-			this.tracker = trackerRestSupport.findTracker(branchModel.getSource().getId(), user);
-			if (tracker.isA(BranchSupport.NON_BRANCHABLE_TYPES)) {
-				throw new BadRequestException("Branch creation is not supported for this type of tracker: " + tracker.getId());
+	/**
+	 * Parses and validates the branches line by line, so only the validated branches are held in memory
+	 * and the first invalid line stops reading the rest of the body.
+	 */
+	private BranchBatchBuilder readBranches(final UserDto user, final InputStream body)
+			throws ResourceNotFoundException, BadRequestException, ResourceForbiddenException, IOException {
+		final long start = System.nanoTime();
+		final BranchBatchBuilder builder = new BranchBatchBuilder(user, new HashMap<>(), this.branchingLookup, this.branchMetrics);
+		try (MappingIterator<CreateBranchModel> branchModels = this.ndjsonMapper.readerFor(CreateBranchModel.class).readValues(body)) {
+			int line = 0;
+			while (true) {
+				final CreateBranchModel branchModel;
+				try {
+					if (!branchModels.hasNextValue()) {
+						break;
+					}
+					branchModel = branchModels.nextValue();
+				} catch (final JsonProcessingException e) {
+					throw new BadRequestException(String.format("Line %d: %s", Integer.valueOf(e.getLocation() != null ? e.getLocation().getLineNr() : line + 1), e.getOriginalMessage()));
+				}
+				line = branchModels.getCurrentLocation().getLineNr();
+
+				try {
+					builder.add(branchModel);
+				} catch (final BadRequestException e) {
+					throw new BadRequestException(String.format("Line %d: %s", Integer.valueOf(line), e.getMessage()));
+				}
 			}
-			checkBranchingPermission();
-			branch = createBranchDto();
+		} finally {
+			this.branchMetrics.record(BranchMetrics.Timing.PREPARE_BRANCHES, start);
 		}
 
-		public CreateBranchParameterDto createCreateBranchParameterDto(Set<Integer> involvedTrackerIds, Map<TrackerDto,BranchCreationContext> branches) {
-			return createCreateBranchParameterDto(
-					createCreateBranchParameters(
-							getIncomingReferencesToRewrite(involvedTrackerIds, branches)));
+		if (builder.isEmpty()) {
+			throw new BadRequestException("No branches in the request body");
 		}
+		return builder;
+	}
 
-		private void checkBranchingPermission() throws ResourceForbiddenException {
-			ProjectDto project = tracker.getProject();
-			boolean hasBranchAdminPermission = EntityCache.getInstance(user).isProjectAdmin(project.getId()) ||
-					EntityCache.getInstance(user).hasPermission(project, ProjectPermission.branch_admin);
-			if(!hasBranchAdminPermission) {
-				throw new ResourceForbiddenException(String.format("No permission to create branches in project %s.", project.getId()), CREATE_URI);
+	@FunctionalInterface
+	private interface BranchBatchSupplier {
+		BranchBatch get() throws ResourceNotFoundException, BadRequestException, ResourceForbiddenException;
+	}
+
+	/**
+	 * Starts a job for the batch, unless a job has already been started with the same key.
+	 * The batch is only prepared if the job fits into the queue.
+	 */
+	private ResponseEntity<BranchJobModel> createJob(final UserDto user, final String key, final BranchBatchSupplier batch,
+			final BranchJobPriority priority, final HttpServletRequest request)
+			throws ResourceNotFoundException, BadRequestException, ResourceForbiddenException {
+		final Lock lock = this.idempotencyStore.getLock(key);
+		lock.lock();
+		try {
+			final ResponseEntity<BranchJobModel> repeatedJob = findRepeatedJob(user, key, request);
+			if (repeatedJob != null) {
+				return repeatedJob;
 			}
+
+			final BranchJob job = startJob(user, key, batch, priority, request);
+			this.idempotencyStore.put(key, job);
+			return accepted(job, request);
+		} catch (final BranchJobRejectedException e) {
+			return tooManyRequests(e);
+		} finally {
+			lock.unlock();
 		}
+	}
 
-		private BranchDto createBranchDto() throws BadRequestException {
-			final BranchDto result = new BranchDto();
-			result.setName(branchModel.getName());
-			result.setKeyName(branchModel.getKeyName());
-			result.setColor(validate(branchModel.getColor()));
-			result.setDescription(branchModel.getDescription());
-			result.setProject(tracker.getProject());
-			result.setTrackerIdOfBranch(tracker.getId());
-			return result;
+	private static ResponseEntity<BranchJobModel> tooManyRequests(final BranchJobRejectedException e) {
+		return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+				.header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+				.build();
+	}
+
+	/**
+	 * @return the response for the job started by an earlier request with the same idempotency key, on this node or on another one,
+	 * or null if there is none or it can be retried, see {@link #isRetryable}. Without an Idempotency-Key header, a settled job
+	 * is only returned while every branch it created still exists, otherwise the request is taken as a new one.
+	 */
+	private ResponseEntity<BranchJobModel> findRepeatedJob(final UserDto user, final String key, final HttpServletRequest request) {
+		final String jobId = this.idempotencyStore.findJobId(key);
+		if (jobId == null) {
+			return null;
 		}
 
-		private String validate(String color) throws BadRequestException {
-			if(isNotEmpty(color)) {
-				try {
-					Color.decode(color);
-				} catch (Exception e) {
-					throw new BadRequestException("Invalid color: " + e.toString());
-				}
+		final boolean fingerprint = BranchJobIdempotencyStore.isFingerprint(key);
+		final BranchJob job = this.branchJobRegistry.findJob(jobId);
+		if (job != null) {
+			if (fingerprint && job.isSettled() && !existAll(user, job.getUnits().stream()
+					.filter(BranchJob.Unit::isCreated)
+					.map(unit -> Pair.of(unit.getSource().getId(), unit.getBranch().getId())))) {
+				return null;
 			}
-			return color;
+			final boolean retryable = isRetryable(job.getStatus())
+					&& (job.getParts().stream().noneMatch(BranchJob.Part::isHandedOver)
+							|| job.isSettled() && isAbsent(user, job.getUnits().stream().map(unit -> Pair.of(unit.getSource().getId(), unit.getName()))));
+			return retryable ? null : accepted(job, request);
 		}
 
-		private Map<Integer, List<BranchDto>> getIncomingReferencesToRewrite(Set<Integer> involvedTrackerIds, Map<TrackerDto,BranchCreationContext> branches) {
+		final BranchJobStore.StoredJob storedJob = this.branchJobStore.find(jobId);
+		if (storedJob != null && fingerprint && storedJob.isSettled() && !existAll(user, storedJob.getUnits().stream()
+				.filter(BranchJobStore.StoredUnit::isCreated)
+				.map(unit -> Pair.of(unit.getModel().getSource().getId(), unit.getBranchId())))) {
+			return null;
+		}
+		if (storedJob == null || isRetryable(storedJob.getStatus()) && storedJob.isSettled()
+				&& storedJob.getUnits().stream().noneMatch(BranchJobStore.StoredUnit::isCreated)
+				&& isAbsent(user, storedJob.getUnits().stream().map(unit -> Pair.of(unit.getModel().getSource().getId(), unit.getModel().getName())))) {
+			return null;
+		}
+		return accepted(jobId, this.branchJobConverter.convert(storedJob), request);
+	}
 
-			Map<Integer, List<BranchDto>> result = new HashMap<>();
+	/**
+	 * A failed or cancelled job is only started again if none of its branches can have been created:
+	 * either none of its parts has been handed over to the background creator, or the job has settled
+	 * and none of the branches exists. A job that failed on the stall timeout only settles once a system admin releases it.
+	 */
+	private static boolean isRetryable(final BranchJobStatus status) {
+		return status == BranchJobStatus.FAILED || status == BranchJobStatus.CANCELLED;
+	}
 
-			Multimap<TrackerDto, TrackerLayoutLabelDto> referringTrackers = branchSupport
-					.getIncomingReferenceFields(user, tracker, object -> {
-						// get only the referring trackers that are among the selected ones
-						final TrackerLayoutLabelDto field = (TrackerLayoutLabelDto) object;
-						return field != null && involvedTrackerIds.contains(field.getTrackerId());
-					});
+	/**
+	 * @return true if none of the sources has a branch with the name paired with it
+	 */
+	private boolean isAbsent(final UserDto user, final Stream<Pair<Integer, String>> units) {
+		final Map<Integer, Set<String>> namesBySource = units.collect(Collectors.groupingBy(Pair::getLeft, Collectors.mapping(Pair::getRight, toSet())));
+		return this.branchListing.findBranches(user, namesBySource.keySet()).stream()
+				.noneMatch(branch -> namesBySource.getOrDefault(branch.getTrackerIdOfBranch(), Collections.emptySet()).contains(branch.getName()));
+	}
 
-			// we need to rewrite all these references, so create the reference config accordingly
-			for (final Map.Entry<TrackerDto, Collection<TrackerLayoutLabelDto>> entry : referringTrackers.asMap().entrySet()) {
-				for (final TrackerLayoutLabelDto field : entry.getValue()) {
-					// put the new branch for each tracker in the list where the key is the field
-					if (!result.containsKey(field.getId())) {
-						result.put(field.getId(), new ArrayList<>());
-					}
+	/**
+	 * @return true if the branches, given with their source, are not empty and all of them still exist
+	 */
+	private boolean existAll(final UserDto user, final Stream<Pair<Integer, Integer>> branches) {
+		final Map<Integer, Set<Integer>> branchIdsBySource = branches.collect(Collectors.groupingBy(Pair::getLeft, Collectors.mapping(Pair::getRight, toSet())));
+		if (branchIdsBySource.isEmpty()) {
+			return false;
+		}
+		final Set<Integer> existingIds = this.branchListing.findBranches(user, branchIdsBySource.keySet()).stream()
+				.map(BranchDto::getId)
+				.collect(toSet());
+		return branchIdsBySource.values().stream().allMatch(existingIds::containsAll);
+	}
+
+	private BranchJob startJob(final UserDto user, final String key, final BranchBatchSupplier batch, final BranchJobPriority priority, final HttpServletRequest request)
+			throws ResourceNotFoundException, BadRequestException, ResourceForbiddenException, BranchJobRejectedException {
+		this.branchJobScheduler.checkCapacity();
+
+		final BranchBatch preparedBatch = batch.get();
+		checkPriority(user, priority, preparedBatch);
+		final BranchJob job = this.branchJobRegistry.register(user, preparedBatch.createParameters());
+		final DetachedHttpServletRequest detachedRequest = this.branchJobScheduler.detach(request);
+		this.branchJobStore.save(job, key, preparedBatch.getPartModels(), priority, detachedRequest);
+		try {
+			this.branchJobScheduler.submit(job, detachedRequest, priority);
+		} catch (final BranchJobRejectedException e) {
+			this.branchJobRegistry.unregister(job);
+			this.branchJobStore.delete(job);
+			throw e;
+		}
+		return job;
+	}
+
+	/**
+	 * High priority jobs overtake the jobs of other projects, so only admins of every source project may submit them.
+	 */
+	private void checkPriority(final UserDto user, final BranchJobPriority priority, final BranchBatch batch) throws ResourceForbiddenException {
+		if (priority != BranchJobPriority.HIGH) {
+			return;
+		}
+		final BranchingPermissions permissions = new BranchingPermissions(user, this.branchingLookup);
+		for (final TrackerDto tracker : batch.getBranches().keySet()) {
+			if (!permissions.isProjectAdmin(tracker.getProject())) {
+				throw new ResourceForbiddenException(String.format("Only project admins can submit high priority branch jobs in project %s.",
+						tracker.getProject().getId()), CREATE_URI);
+			}
+		}
+	}
+
+	@Operation(summary = "Resumes a branch creation job interrupted by the restart of the node running it on this node, before a node with free capacity resumes it", tags = "Branches")
+	@ApiResponses({
+			@ApiResponse(responseCode = "200", description = "Every branch of the job had already been created, the job is completed"),
+			@ApiResponse(responseCode = "202", description = "The branches not created yet are created by a new run of the job on this node, Location points to the job"),
+			@ApiResponse(responseCode = "401", description = "Authorization required"),
+			@ApiResponse(responseCode = "403", description = "Access denied for one of the resources"),
+			@ApiResponse(responseCode = "404", description = "Job not found, or the branch job store is not enabled"),
+			@ApiResponse(responseCode = "409", description = "The job has finished or is running on another node"),
+			@ApiResponse(responseCode = "429", description = "Too many branch jobs are waiting, retry after the seconds in Retry-After"),
+	})
+	@RequestMapping(
+			value = BranchRestController.RESUME_URI,
+			method = RequestMethod.POST,
+			produces = MediaType.APPLICATION_JSON_VALUE
+	)
+	@ResponseBody
+	public ResponseEntity<BranchJobModel> resumeBranchJob(@PathVariable("jobId") final String jobId, final HttpServletRequest request)
+			throws ResourceUnauthorizedException, ResourceForbiddenException, ResourceNotFoundException, BadRequestException {
+		final String uri = new UriTemplate(BranchRestController.RESUME_URI).expand(jobId).getPath();
+		final UserDto user = this.checkUserHasPermission(uri);
+
+		if(!branchSupport.hasBranchingLicense()) {
+			throw new ResourceForbiddenException("Missing branching license.", uri);
+		}
+
+		final BranchJob runningJob = this.branchJobRegistry.findJob(jobId);
+		if (runningJob != null && runningJob.isOwnedBy(user) && !runningJob.getStatus().isFinished()) {
+			return accepted(runningJob, request);
+		}
+
+		final BranchJobStore.StoredJob storedJob = this.branchJobStore.find(jobId);
+		if (storedJob == null || !storedJob.getUserId().equals(user.getId())) {
+			throw new ResourceNotFoundException("Branch job is not found: " + jobId, uri);
+		}
+		if (!storedJob.isInterrupted()) {
+			return ResponseEntity.status(HttpStatus.CONFLICT).body(this.branchJobConverter.convert(storedJob));
+		}
+
+		try {
+			this.branchJobScheduler.checkCapacity();
+			if (!this.branchJobStore.claim(jobId)) {
+				return ResponseEntity.status(HttpStatus.CONFLICT).body(this.branchJobConverter.convert(this.branchJobStore.find(jobId)));
+			}
 
-					result.get(field.getId()).add(branches.get(entry.getKey()).branch);
+			final BranchJob job;
+			boolean resumed = false;
+			try {
+				job = this.branchJobResumer.resumeClaimed(user, storedJob, this.branchJobScheduler.detach(request));
+				resumed = true;
+			} finally {
+				if (!resumed) {
+					this.branchJobStore.release(jobId);
 				}
 			}
+			if (job == null) {
+				return ResponseEntity.ok(this.branchJobConverter.convert(this.branchJobStore.find(jobId)));
+			}
+			return accepted(job, request);
+		} catch (final BranchJobRejectedException e) {
+			return tooManyRequests(e);
+		}
+	}
 
-			return result;
+	private ResponseEntity<BranchJobModel> accepted(final BranchJob job, final HttpServletRequest request) {
+		return accepted(job.getId(), this.branchJobConverter.convert(job), request);
+	}
+
+	private ResponseEntity<BranchJobModel> accepted(final String jobId, final BranchJobModel job, final HttpServletRequest request) {
+		final URI location = URI.create(request.getRequestURL().toString())
+				.resolve(new UriTemplate(BranchJobRestController.JOB_URI).expand(jobId).getPath());
+		return ResponseEntity.status(HttpStatus.ACCEPTED).location(location).body(job);
+	}
+
+	@Operation(summary = "Fetches branches of a tracker", tags = "Branches")
+	@ApiResponses({
+			@ApiResponse(responseCode = "200", description = "List of branches as TrackerReferences, X-Total-Count contains the number of all branches"),
+			@ApiResponse(responseCode = "304", description = "Branches have not changed since the ETag in If-None-Match"),
+			@ApiResponse(responseCode = "400", description = "Invalid paging parameters"),
+			@ApiResponse(responseCode = "401", description = "Authorization required"),
+			@ApiResponse(responseCode = "403", description = "Access denied for one of the resources"),
+			@ApiResponse(responseCode = "404", description = "Tracker not found"),
+	})
+	@RequestMapping(
+			value = BranchRestController.GET_BRANCHES_URI,
+			method = RequestMethod.GET,
+			produces = MediaType.APPLICATION_JSON_VALUE
+	)
+	@ResponseBody
+	public ResponseEntity<List<TrackerReferenceModel>> getBranches(@PathVariable("trackerId") final Integer trackerId,
+			@Parameter(description = "Index of the page, starting with 1")
+			@RequestParam(value = "page", required = false) final Integer page,
+			@Parameter(description = "Number of branches on a page (max. 500)")
+			@RequestParam(value = "pageSize", required = false) final Integer pageSize,
+			@Parameter(description = "Returns only branches with greater id, use the last id of the previous page as cursor")
+			@RequestParam(value = "after", required = false) final Integer after,
+			final WebRequest webRequest)
+			throws ResourceUnauthorizedException, ResourceForbiddenException, ResourceNotFoundException, BadRequestException {
+		final String uri = new UriTemplate(BranchRestController.GET_BRANCHES_URI).expand(trackerId).getPath();
+		final UserDto user = this.checkUserHasPermission(uri);
+
+		final BranchList branches = this.branchListing.getBranchList(user, trackerId);
+		final int totalCount = branches.getBranches().size();
+		if (page == null && pageSize == null && after == null) {
+			if (webRequest.checkNotModified(branches.getETag())) {
+				return null;
+			}
+			return ResponseEntity.ok()
+					.eTag(branches.getETag())
+					.header(TOTAL_COUNT_HEADER, String.valueOf(totalCount))
+					.body(this.branchListing.convert(branches.getBranches()));
 		}
 
-		private CreateBranchParameters createCreateBranchParameters(
-				final Map<Integer, List<BranchDto>> incomingReferencesToRewriteWithNewBranches) {
-			final BranchReferenceModel refModel = new BranchReferenceModel();
-			refModel.setReplaceIncomingReferences(true);
-			refModel.setIncomingReferencesToRewriteWithNewBranches(incomingReferencesToRewriteWithNewBranches);
-
-			final CreateBranchParameters params = new CreateBranchParameters();
-			params.setBaselineId(branchModel.getBaselineId());
-			params.setBranchReferenceModel(refModel);
-			params.setInheritance(branchModel.getPermissionInheritance());
-			return params;
+		final BranchPage branchPage = new BranchPage(branches.getBranches(), page, pageSize, after);
+		final String eTag = branches.getETag(page + "-" + branchPage.getPageSize() + "-" + after);
+		if (webRequest.checkNotModified(eTag)) {
+			return null;
 		}
 
-		private CreateBranchParameterDto createCreateBranchParameterDto(final CreateBranchParameters params) {
-			final CreateBranchParameterDto param = new CreateBranchParameterDto();
-			param.setSource(tracker);
-			param.setBranchParam(branch);
-			param.setParameters(params);
-			return param;
+		final ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(eTag).header(TOTAL_COUNT_HEADER, String.valueOf(totalCount));
+		if (branchPage.hasNext()) {
+			final String next = ServletUriComponentsBuilder.fromCurrentRequest()
+					.replaceQueryParam("page")
+					.replaceQueryParam("pageSize", branchPage.getPageSize())
+					.replaceQueryParam("after", branchPage.getLastId())
+					.toUriString();
+			response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
 		}
+		return response.body(this.branchListing.convert(branchPage.getBranches()));
+	}
+
+	@Operation(summary = "Streams branches of a tracker as newline delimited JSON", tags = "Branches")
+	@ApiResponses({
+			@ApiResponse(responseCode = "200", description = "One TrackerReference per line"),
+			@ApiResponse(responseCode = "401", description = "Authorization required"),
+			@ApiResponse(responseCode = "403", description = "Access denied for one of the resources"),
+			@ApiResponse(responseCode = "404", description = "Tracker not found"),
+	})
+	@RequestMapping(
+			value = BranchRestController.GET_BRANCHES_URI,
+			method = RequestMethod.GET,
+			produces = BranchRestController.NDJSON_MEDIA_TYPE
+	)
+	public ResponseEntity<StreamingResponseBody> streamBranches(@PathVariable("trackerId") final Integer trackerId)
+			throws ResourceUnauthorizedException, ResourceForbiddenException, ResourceNotFoundException {
+		final String uri = new UriTemplate(BranchRestController.GET_BRANCHES_URI).expand(trackerId).getPath();
+		final UserDto user = this.checkUserHasPermission(uri);
 
+		this.branchingLookup.findTracker(user, trackerId);
+
+		final List<BranchDto> branches = this.branchListing.findBranches(user, Collections.singletonList(trackerId));
+		return ResponseEntity.ok()
+				.contentType(MediaType.parseMediaType(NDJSON_MEDIA_TYPE))
+				.header(TOTAL_COUNT_HEADER, String.valueOf(branches.size()))
+				.body(out -> {
+					// branches are converted one by one, so the converted list is never held in memory
+					for (final BranchDto branch : branches) {
+						this.ndjsonMapper.writeValue(out, this.branchListing.convert(branch));
+						out.write('\n');
+					}
+				});
 	}
 
-	private List<CreateBranchParameterDto> prepareParameters(final UserDto user, final CreateBranchesModel model)
-			throws ResourceNotFoundException, BadRequestException, ResourceForbiddenException {
+	@Operation(summary = "Fetches the branches of a tracker created, modified or deleted since a cursor", tags = "Branches")
+	@ApiResponses({
+			@ApiResponse(responseCode = "200", description = "Changed branches, ids of deleted branches and the cursor of the current state"),
+			@ApiResponse(responseCode = "401", description = "Authorization required"),
+			@ApiResponse(responseCode = "403", description = "Access denied"),
+			@ApiResponse(responseCode = "404", description = "Tracker not found"),
+	})
+	@RequestMapping(
+			value = BranchRestController.GET_BRANCH_CHANGES_URI,
+			method = RequestMethod.GET,
+			produces = MediaType.APPLICATION_JSON_VALUE
+	)
+	@ResponseBody
+	public BranchChangesModel getBranchChanges(@PathVariable("trackerId") final Integer trackerId,
+			@Parameter(description = "Cursor returned by the previous request, every branch is returned without it")
+			@RequestParam(value = "cursor", required = false) final String cursor)
+			throws ResourceUnauthorizedException, ResourceForbiddenException, ResourceNotFoundException {
+		final String uri = new UriTemplate(BranchRestController.GET_BRANCH_CHANGES_URI).expand(trackerId).getPath();
+		final UserDto user = this.checkUserHasPermission(uri);
 
-		Set<Integer> trackerIds = model.getBranches().stream()
-				.map(CreateBranchModel::getSource)
-				.map(IdentifiableModel::getId)
-				.collect(toSet());
+		final BranchList branches = this.branchListing.getBranchList(user, trackerId);
+		final Map<Integer, Long> previous = StringUtils.isNotBlank(cursor) ? this.branchSnapshotStore.find(user, trackerId, cursor.trim()) : null;
+		final Map<Integer, Long> current = branches.getFingerprints();
+
+		final BranchChangesModel result = new BranchChangesModel();
+		result.setFull(previous == null);
+		result.setChanged(this.branchListing.convert(branches.getBranches().stream()
+				.filter(branch -> previous == null || !Objects.equals(previous.get(branch.getId()), current.get(branch.getId())))
+				.collect(toList())));
+		if (previous != null) {
+			previous.keySet().stream()
+					.filter(branchId -> !current.containsKey(branchId))
+					.sorted()
+					.forEach(result.getDeleted()::add);
+		}
+		result.setCursor(this.branchSnapshotStore.put(user, trackerId, branches));
+		return result;
+	}
+
+	@Operation(summary = "Fetches branches of multiple trackers", tags = "Branches")
+	@ApiResponses({
+			@ApiResponse(responseCode = "200", description = "Branches as TrackerReferences by tracker id"),
+			@ApiResponse(responseCode = "400", description = "Tracker ids are missing or too many trackers"),
+			@ApiResponse(responseCode = "401", description = "Authorization required"),
+			@ApiResponse(responseCode = "403", description = "Access denied for one of the resources"),
+			@ApiResponse(responseCode = "404", description = "One of the trackers is not found"),
+	})
+	@RequestMapping(
+			value = BranchRestController.FIND_BRANCHES_URI,
+			method = RequestMethod.POST,
+			consumes = MediaType.APPLICATION_JSON_VALUE,
+			produces = MediaType.APPLICATION_JSON_VALUE
+	)
+	@ResponseBody
+	public Map<Integer, List<TrackerReferenceModel>> findBranches(@RequestBody final FindBranchesModel model)
+			throws ResourceUnauthorizedException, ResourceForbiddenException, ResourceNotFoundException, BadRequestException {
+		final UserDto user = this.checkUserHasPermission(BranchRestController.FIND_BRANCHES_URI);
+
+		if (model.getTrackerIds() == null || model.getTrackerIds().isEmpty() || model.getTrackerIds().contains(null)) {
+			throw new BadRequestException("Tracker ids of the request are missing");
+		}
+		if (model.getTrackerIds().size() > MAX_TRACKERS) {
+			throw new BadRequestException(String.format("At most %d trackers can be requested at once", MAX_TRACKERS));
+		}
+
+		final Map<Integer, TrackerDto> trackers = this.branchingLookup.findTrackers(user, model.getTrackerIds());
 
-		Map<TrackerDto, BranchCreationContext> branches = prepareBranches(user, model);
+		final Map<Integer, BranchList> branches = this.branchListing.getBranchLists(user, trackers.keySet());
 
-		return branches.values().stream()
-			.map(context -> context.createCreateBranchParameterDto(trackerIds, branches))
-			.collect(toList());
+		final Map<Integer, List<TrackerReferenceModel>> result = new LinkedHashMap<>();
+		branches.forEach((trackerId, branchList) -> result.put(trackerId, this.branchListing.convert(branchList.getBranches())));
+		return result;
+	}
+
+	@Operation(summary = "Fetches the statistics of the branch list cache", tags = "Branches")
+	@ApiResponses({
+			@ApiResponse(responseCode = "200", description = "Hit, miss and eviction counts of the cache"),
+			@ApiResponse(responseCode = "401", description = "Authorization required"),
+			@ApiResponse(responseCode = "403", description = "Access denied, only system admins can read the statistics"),
+	})
+	@RequestMapping(
+			value = BranchRestController.CACHE_STATISTICS_URI,
+			method = RequestMethod.GET,
+			produces = MediaType.APPLICATION_JSON_VALUE
+	)
+	@ResponseBody
+	public BranchCacheStatisticsModel getCacheStatistics() throws ResourceUnauthorizedException, ResourceForbiddenException {
+		checkSystemAdmin(BranchRestController.CACHE_STATISTICS_URI);
+
+		final CacheStats stats = this.branchListCache.getStats();
+		final BranchCacheStatisticsModel result = new BranchCacheStatisticsModel();
+		result.setHitCount(stats.hitCount());
+		result.setMissCount(stats.missCount());
+		result.setEvictionCount(stats.evictionCount());
+		result.setSize(this.branchListCache.size());
+		return result;
 	}
 
+	@Operation(summary = "Fetches the timers and counters of the branching extension in Prometheus text format", tags = "Branches")
+	@ApiResponses({
+			@ApiResponse(responseCode = "200", description = "Metrics in Prometheus text format"),
+			@ApiResponse(responseCode = "401", description = "Authorization required"),
+			@ApiResponse(responseCode = "403", description = "Access denied, only system admins can read the metrics"),
+	})
+	@RequestMapping(
+			value = BranchRestController.METRICS_URI,
+			method = RequestMethod.GET,
+			produces = BranchRestController.PROMETHEUS_MEDIA_TYPE
+	)
+	@ResponseBody
+	public String getMetrics() throws ResourceUnauthorizedException, ResourceForbiddenException {
+		checkSystemAdmin(BranchRestController.METRICS_URI);
+		return this.branchMetrics.toPrometheusText();
+	}
 
-	private Map<TrackerDto, BranchCreationContext> prepareBranches(final UserDto user, final CreateBranchesModel model)
-			throws ResourceNotFoundException, BadRequestException, ResourceForbiddenException {
-		Map<TrackerDto, BranchCreationContext> branches = new HashMap<>();
-		for (final CreateBranchModel branchModel : model.getBranches()) {
-			BranchCreationContext context = new BranchCreationContext(branchModel, user);
-			branches.put(context.tracker, context);
+	/**
+	 * The statistics of the extension span every project, so only system admins may read them.
+	 */
+	private void checkSystemAdmin(final String uri) throws ResourceUnauthorizedException, ResourceForbiddenException {
+		final UserDto user = this.checkUserHasPermission(uri);
+		if (!this.branchingLookup.isSystemAdmin(user)) {
+			throw new ResourceForbiddenException("Only system admins can read the branching statistics.", uri);
+		}
+	}
+
+	@Operation(summary = "Fetches the branches of a tracker with their branches recursively", tags = "Branches")
+	@ApiResponses({
+			@ApiResponse(responseCode = "200", description = "Tree of branches as TrackerReferences"),
+			@ApiResponse(responseCode = "400", description = "Invalid depth"),
+			@ApiResponse(responseCode = "401", description = "Authorization required"),
+			@ApiResponse(responseCode = "403", description = "Access denied for one of the resources"),
+			@ApiResponse(responseCode = "404", description = "Tracker not found"),
+	})
+	@RequestMapping(
+			value = BranchRestController.GET_BRANCH_TREE_URI,
+			method = RequestMethod.GET,
+			produces = MediaType.APPLICATION_JSON_VALUE
+	)
+	@ResponseBody
+	public List<BranchTreeNodeModel> getBranchTree(@PathVariable("trackerId") final Integer trackerId,
+			@Parameter(description = "Number of branch levels to return (max. 20)")
+			@RequestParam(value = "maxDepth", required = false) final Integer maxDepth,
+			@Parameter(description = "Returns only branches whose name contains this text, together with their ancestors")
+			@RequestParam(value = "name", required = false) final String name)
+			throws ResourceUnauthorizedException, ResourceForbiddenException, ResourceNotFoundException, BadRequestException {
+		final String uri = new UriTemplate(BranchRestController.GET_BRANCH_TREE_URI).expand(trackerId).getPath();
+		final UserDto user = this.checkUserHasPermission(uri);
+
+		final int depth = maxDepth != null ? maxDepth.intValue() : MAX_TREE_DEPTH;
+		if (depth < 1 || depth > MAX_TREE_DEPTH) {
+			throw new BadRequestException(String.format("maxDepth must be between 1 and %d", MAX_TREE_DEPTH));
 		}
-		return branches;
+
+		this.branchingLookup.findTracker(user, trackerId);
+
+		// the branch lists cached per tracker serve as parent-children index, missing levels are loaded with one query each
+		final Map<Integer, List<BranchDto>> branchesByParent = new HashMap<>();
+		final Set<Integer> visited = new HashSet<>(Collections.singleton(trackerId));
+		Set<Integer> level = Collections.singleton(trackerId);
+		for (int i = 0; i < depth && !level.isEmpty(); i++) {
+			final Set<Integer> nextLevel = new LinkedHashSet<>();
+			this.branchListing.getBranchLists(user, level).forEach((parentId, branches) -> {
+				branchesByParent.put(parentId, branches.getBranches());
+				branches.getBranches().stream()
+						.map(BranchDto::getId)
+						.filter(visited::add)
+						.forEach(nextLevel::add);
+			});
+			level = nextLevel;
+		}
+
+		return buildBranchTree(trackerId, branchesByParent, name, depth);
 	}
 
+	private List<BranchTreeNodeModel> buildBranchTree(final Integer parentId, final Map<Integer, List<BranchDto>> branchesByParent,
+			final String name, final int depth) {
+		final List<BranchTreeNodeModel> result = new ArrayList<>();
+		if (depth == 0) {
+			return result;
+		}
+
+		for (final BranchDto branch : branchesByParent.getOrDefault(parentId, Collections.emptyList())) {
+			final List<BranchTreeNodeModel> children = buildBranchTree(branch.getId(), branchesByParent, name, depth - 1);
+			if (StringUtils.isEmpty(name) || StringUtils.containsIgnoreCase(branch.getName(), name) || !children.isEmpty()) {
+				final BranchTreeNodeModel node = new BranchTreeNodeModel();
+				node.setBranch(this.branchListing.convert(branch));
+				node.setBranches(children);
+				result.add(node);
+			}
+		}
+		return result;
+	}
 
 }
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.intland.codebeamer.persistence.dto.UserDto;
+
+/**
+ * Fingerprints of the branch lists returned to sync clients, identified by the cursor handed out with them.
+ * The cursor is derived from the content of the list, so clients seeing the same branches share one snapshot.
+ * Snapshots are kept per tracker and user and are weighed by their number of branches; once evicted the client
+ * gets the full list again.
+ */
+@Component
+public class BranchSnapshotStore {
+	private static final long MAXIMUM_BRANCHES = 1000000;
+	private static final long EXPIRE_AFTER_ACCESS_HOURS = 24;
+
+	private final Cache<String, Map<Integer, Long>> snapshots = CacheBuilder.newBuilder()
+			.maximumWeight(MAXIMUM_BRANCHES)
+			.<String, Map<Integer, Long>>weigher((key, fingerprints) -> fingerprints.size() + 1)
+			.expireAfterAccess(EXPIRE_AFTER_ACCESS_HOURS, TimeUnit.HOURS)
+			.build();
+
+	/**
+	 * @return the cursor of the stored snapshot
+	 */
+	public String put(final UserDto user, final Integer trackerId, final BranchList branches) {
+		final String cursor = branches.getETag().replace("\"", "");
+		this.snapshots.put(key(user, trackerId, cursor), branches.getFingerprints());
+		return cursor;
+	}
+
+	/**
+	 * @return the fingerprints by branch id, or null if the cursor is unknown or its snapshot has been evicted
+	 */
+	public Map<Integer, Long> find(final UserDto user, final Integer trackerId, final String cursor) {
+		return this.snapshots.getIfPresent(key(user, trackerId, cursor));
+	}
+
+	private static String key(final UserDto user, final Integer trackerId, final String cursor) {
+		return user.getId() + ":" + trackerId + ":" + cursor;
+	}
+}
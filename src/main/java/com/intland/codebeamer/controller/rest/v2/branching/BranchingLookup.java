@@ -0,0 +1,96 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Multimap;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceForbiddenException;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceNotFoundException;
+import com.intland.codebeamer.controller.rest.v2.model.reference.TrackerReferenceModel;
+import com.intland.codebeamer.persistence.dto.BranchDto;
+import com.intland.codebeamer.persistence.dto.ProjectDto;
+import com.intland.codebeamer.persistence.dto.TrackerDto;
+import com.intland.codebeamer.persistence.dto.TrackerLayoutLabelDto;
+import com.intland.codebeamer.persistence.dto.UserDto;
+
+/**
+ * The lookups of codeBeamer the preparation of branch batches and the branch listings rely on,
+ * so that their logic can also run against in-memory data, e.g. in the benchmarks.
+ */
+public interface BranchingLookup {
+
+	/**
+	 * @return the tracker, if the user can read it
+	 */
+	TrackerDto findTracker(UserDto user, Integer trackerId) throws ResourceNotFoundException, ResourceForbiddenException;
+
+	/**
+	 * @return the reference fields of the given trackers pointing to the target, by referring tracker
+	 */
+	Multimap<TrackerDto, TrackerLayoutLabelDto> getIncomingReferenceFields(UserDto user, TrackerDto target, Set<Integer> referringTrackerIds);
+
+	boolean isBranchAdmin(UserDto user, ProjectDto project);
+
+	boolean isProjectAdmin(UserDto user, ProjectDto project);
+
+	boolean isSystemAdmin(UserDto user);
+
+	/**
+	 * @return the user with the id, or null if there is no such user
+	 */
+	UserDto findUser(Integer userId);
+
+	/**
+	 * @return the branches of the trackers visible to the user
+	 */
+	List<BranchDto> findBranches(UserDto user, Collection<Integer> trackerIds);
+
+	TrackerReferenceModel convert(TrackerDto tracker);
+
+	/**
+	 * Resolves every distinct tracker once, in the order of the ids.
+	 */
+	default Map<Integer, TrackerDto> findTrackers(final UserDto user, final Collection<Integer> trackerIds)
+			throws ResourceNotFoundException, ResourceForbiddenException {
+		final Map<Integer, TrackerDto> trackers = new LinkedHashMap<>();
+		for (final Integer trackerId : trackerIds) {
+			if (!trackers.containsKey(trackerId)) {
+				trackers.put(trackerId, findTracker(user, trackerId));
+			}
+		}
+		return trackers;
+	}
+}
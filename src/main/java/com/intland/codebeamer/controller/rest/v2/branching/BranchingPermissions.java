@@ -0,0 +1,60 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.intland.codebeamer.persistence.dto.ProjectDto;
+import com.intland.codebeamer.persistence.dto.UserDto;
+
+/**
+ * Request scoped matrix of the branch admin and project admin permissions of a user: each permission is evaluated only once per project.
+ */
+class BranchingPermissions {
+	private final UserDto user;
+	private final BranchingLookup lookup;
+	private final Map<Integer, Boolean> branchAdminByProject = new HashMap<>();
+	private final Map<Integer, Boolean> projectAdminByProject = new HashMap<>();
+
+	BranchingPermissions(final UserDto user, final BranchingLookup lookup) {
+		this.user = user;
+		this.lookup = lookup;
+	}
+
+	boolean isBranchAdmin(final ProjectDto project) {
+		return this.branchAdminByProject.computeIfAbsent(project.getId(), projectId -> Boolean.valueOf(this.lookup.isBranchAdmin(this.user, project))).booleanValue();
+	}
+
+	boolean isProjectAdmin(final ProjectDto project) {
+		return this.projectAdminByProject.computeIfAbsent(project.getId(), projectId -> Boolean.valueOf(this.lookup.isProjectAdmin(this.user, project))).booleanValue();
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.google.common.collect.Multimap;
+import com.intland.codebeamer.controller.rest.v2.converter.reference.TrackerReferenceConverter;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceForbiddenException;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceNotFoundException;
+import com.intland.codebeamer.controller.rest.v2.model.reference.TrackerReferenceModel;
+import com.intland.codebeamer.controller.rest.v2.support.TrackerRestSupport;
+import com.intland.codebeamer.controller.support.branch.BranchSupport;
+import com.intland.codebeamer.persistence.dao.BranchDao;
+import com.intland.codebeamer.persistence.dao.UserDao;
+import com.intland.codebeamer.persistence.dao.impl.EntityCache;
+import com.intland.codebeamer.persistence.dto.BranchDto;
+import com.intland.codebeamer.persistence.dto.ProjectDto;
+import com.intland.codebeamer.persistence.dto.ProjectPermission;
+import com.intland.codebeamer.persistence.dto.TrackerDto;
+import com.intland.codebeamer.persistence.dto.TrackerLayoutLabelDto;
+import com.intland.codebeamer.persistence.dto.UserDto;
+
+/**
+ * Serves the lookups of the branching extension from the services of codeBeamer.
+ */
+@Component
+public class CodeBeamerBranchingLookup implements BranchingLookup {
+
+	@Autowired
+	private BranchSupport branchSupport;
+
+	@Autowired
+	private TrackerRestSupport trackerRestSupport;
+
+	@Autowired
+	private BranchDao branchDao;
+
+	@Autowired
+	private UserDao userDao;
+
+	@Autowired
+	private TrackerReferenceConverter trackerReferenceConverter;
+
+	@Override
+	public TrackerDto findTracker(final UserDto user, final Integer trackerId) throws ResourceNotFoundException, ResourceForbiddenException {
+		return this.trackerRestSupport.findTracker(trackerId, user);
+	}
+
+	@Override
+	public Multimap<TrackerDto, TrackerLayoutLabelDto> getIncomingReferenceFields(final UserDto user, final TrackerDto target,
+			final Set<Integer> referringTrackerIds) {
+		return this.branchSupport.getIncomingReferenceFields(user, target, object -> {
+			// get only the referring trackers that are among the selected ones
+			final TrackerLayoutLabelDto field = (TrackerLayoutLabelDto) object;
+			return field != null && referringTrackerIds.contains(field.getTrackerId());
+		});
+	}
+
+	@Override
+	public boolean isBranchAdmin(final UserDto user, final ProjectDto project) {
+		final EntityCache entityCache = EntityCache.getInstance(user);
+		return entityCache.isProjectAdmin(project.getId()) || entityCache.hasPermission(project, ProjectPermission.branch_admin);
+	}
+
+	@Override
+	public boolean isProjectAdmin(final UserDto user, final ProjectDto project) {
+		return EntityCache.getInstance(user).isProjectAdmin(project.getId());
+	}
+
+	@Override
+	public boolean isSystemAdmin(final UserDto user) {
+		return EntityCache.getInstance(user).isSystemAdmin();
+	}
+
+	@Override
+	public UserDto findUser(final Integer userId) {
+		return this.userDao.findById(userId);
+	}
+
+	@Override
+	public List<BranchDto> findBranches(final UserDto user, final Collection<Integer> trackerIds) {
+		return this.branchDao.findByTrackers(user, trackerIds);
+	}
+
+	@Override
+	public TrackerReferenceModel convert(final TrackerDto tracker) {
+		return this.trackerReferenceConverter.convert(tracker);
+	}
+}
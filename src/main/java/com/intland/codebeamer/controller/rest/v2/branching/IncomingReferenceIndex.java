@@ -0,0 +1,84 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.google.common.collect.Multimap;
+import com.intland.codebeamer.persistence.dto.TrackerDto;
+import com.intland.codebeamer.persistence.dto.TrackerLayoutLabelDto;
+
+/**
+ * Reference fields between the trackers of a branch batch: for each tracker the fields of the involved trackers
+ * referring to it, together with the tracker of the field. The index is built once per batch and shared by
+ * the branches and the dependency graph. codeBeamer only looks up the fields referring to a single target,
+ * so building the index still takes one lookup per distinct tracker of the batch, as many as before the index.
+ */
+class IncomingReferenceIndex {
+	private final Map<Integer, Map<Integer, TrackerDto>> referringTrackerByFieldByTarget;
+
+	private IncomingReferenceIndex(final Map<Integer, Map<Integer, TrackerDto>> referringTrackerByFieldByTarget) {
+		this.referringTrackerByFieldByTarget = referringTrackerByFieldByTarget;
+	}
+
+	/**
+	 * @param trackers the involved trackers
+	 * @param referringFieldLookup returns the fields referring to a tracker, restricted to the involved trackers
+	 */
+	static IncomingReferenceIndex build(final Collection<TrackerDto> trackers,
+			final Function<TrackerDto, Multimap<TrackerDto, TrackerLayoutLabelDto>> referringFieldLookup) {
+		final Map<Integer, Map<Integer, TrackerDto>> index = new HashMap<>();
+		for (final TrackerDto target : trackers) {
+			if (index.containsKey(target.getId())) {
+				continue;
+			}
+
+			final Map<Integer, TrackerDto> referringTrackerByField = new LinkedHashMap<>();
+			for (final Map.Entry<TrackerDto, TrackerLayoutLabelDto> entry : referringFieldLookup.apply(target).entries()) {
+				referringTrackerByField.put(entry.getValue().getId(), entry.getKey());
+			}
+			index.put(target.getId(), referringTrackerByField);
+		}
+		return new IncomingReferenceIndex(index);
+	}
+
+	/**
+	 * @return the referring tracker for each field id referring to the target tracker
+	 */
+	Map<Integer, TrackerDto> getReferringTrackersByField(final TrackerDto target) {
+		return this.referringTrackerByFieldByTarget.getOrDefault(target.getId(), Collections.emptyMap());
+	}
+}
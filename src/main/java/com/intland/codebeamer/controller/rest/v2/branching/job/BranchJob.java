@@ -0,0 +1,389 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching.job;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import com.intland.codebeamer.controller.rest.v2.model.reference.TrackerReferenceModel;
+import com.intland.codebeamer.controller.support.branch.CreateBranchParameterDto;
+import com.intland.codebeamer.persistence.dto.UserDto;
+
+/**
+ * In-memory state of a branch creation job started by the create-branches endpoint.
+ * Every change of the state increments the version, which is used as ETag and to wake up long-polling clients.
+ */
+public class BranchJob {
+	private static final long AWAIT_INTERVAL_MILLIS = 1000;
+
+	/**
+	 * One branch to be created by the job
+	 */
+	public static class Unit {
+		private final TrackerReferenceModel source;
+		private final String name;
+		private volatile TrackerReferenceModel branch;
+
+		Unit(final TrackerReferenceModel source, final String name) {
+			this.source = source;
+			this.name = name;
+		}
+
+		public TrackerReferenceModel getSource() {
+			return this.source;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		public TrackerReferenceModel getBranch() {
+			return this.branch;
+		}
+
+		public boolean isCreated() {
+			return this.branch != null;
+		}
+	}
+
+	/**
+	 * Branches of the job that are handed over to the background creator together, because they rewrite references to each other.
+	 */
+	public static class Part {
+		private final List<Unit> units;
+		private List<CreateBranchParameterDto> parameters;
+		private volatile boolean handedOver;
+
+		Part(final List<Unit> units, final List<CreateBranchParameterDto> parameters) {
+			this.units = units;
+			this.parameters = parameters;
+		}
+
+		public List<Unit> getUnits() {
+			return this.units;
+		}
+
+		public boolean isCreated() {
+			return this.units.stream().allMatch(Unit::isCreated);
+		}
+
+		/**
+		 * @return true if the part has been handed over to the background creator, which keeps creating its branches
+		 * even if the job is cancelled or fails
+		 */
+		public boolean isHandedOver() {
+			return this.handedOver;
+		}
+
+		/**
+		 * Returns the parameters of the part only once, so they are not kept in memory after the part has been started.
+		 */
+		synchronized List<CreateBranchParameterDto> takeParameters() {
+			final List<CreateBranchParameterDto> result = this.parameters;
+			this.parameters = null;
+			return result;
+		}
+	}
+
+	private final String id;
+	private final UserDto user;
+	private final Date submittedAt = new Date();
+	private final List<Part> parts;
+	private final List<Unit> units;
+	private final Set<Integer> projectIds;
+	private final Set<Integer> knownBranchIds;
+	private final BranchJobListener listener;
+	private final Set<Runnable> changeCallbacks = new LinkedHashSet<>();
+
+	private BranchJobStatus status = BranchJobStatus.QUEUED;
+	private boolean settled;
+	private long version;
+	private long lastProgressAt = System.currentTimeMillis();
+	private Date startedAt;
+	private Date finishedAt;
+	private String message;
+
+	BranchJob(final String id, final UserDto user, final List<Part> parts, final Set<Integer> projectIds, final Set<Integer> knownBranchIds,
+			final BranchJobListener listener) {
+		this.id = id;
+		this.user = user;
+		this.parts = parts;
+		this.units = parts.stream().flatMap(part -> part.getUnits().stream()).collect(Collectors.toList());
+		this.projectIds = projectIds;
+		this.knownBranchIds = knownBranchIds;
+		this.listener = listener;
+	}
+
+	public String getId() {
+		return this.id;
+	}
+
+	public UserDto getUser() {
+		return this.user;
+	}
+
+	public Date getSubmittedAt() {
+		return this.submittedAt;
+	}
+
+	public synchronized BranchJobStatus getStatus() {
+		return this.status;
+	}
+
+	public synchronized long getVersion() {
+		return this.version;
+	}
+
+	public synchronized Date getStartedAt() {
+		return this.startedAt;
+	}
+
+	public synchronized Date getFinishedAt() {
+		return this.finishedAt;
+	}
+
+	public synchronized String getMessage() {
+		return this.message;
+	}
+
+	/**
+	 * @return true if the job has finished and none of its parts is being created by the background creator any more
+	 */
+	public synchronized boolean isSettled() {
+		return this.settled;
+	}
+
+	public synchronized List<Unit> getUnits() {
+		return new ArrayList<>(this.units);
+	}
+
+	public List<Part> getParts() {
+		return this.parts;
+	}
+
+	/**
+	 * @return ids of the projects of the source trackers
+	 */
+	public Set<Integer> getProjectIds() {
+		return this.projectIds;
+	}
+
+	public boolean isOwnedBy(final UserDto other) {
+		return other != null && this.user.getId().equals(other.getId());
+	}
+
+	public void start() {
+		if (changed(() -> {
+			if (this.status != BranchJobStatus.QUEUED) {
+				return false;
+			}
+			this.status = BranchJobStatus.RUNNING;
+			this.startedAt = new Date();
+			return true;
+		})) {
+			this.listener.jobStarted(this);
+		}
+	}
+
+	/**
+	 * Completes a job without parts, nothing is handed over to the background creator for it.
+	 */
+	void complete() {
+		if (this.parts.isEmpty()) {
+			finish(BranchJobStatus.COMPLETED, null);
+		}
+	}
+
+	public void fail(final String reason) {
+		finish(BranchJobStatus.FAILED, reason);
+	}
+
+	/**
+	 * Cancels the job: parts that have not been handed over to the background creator yet are skipped,
+	 * the job settles once the parts already handed over have been created.
+	 */
+	public void cancel() {
+		finish(BranchJobStatus.CANCELLED, "Cancelled by " + this.user.getName());
+	}
+
+	private void finish(final BranchJobStatus finalStatus, final String reason) {
+		if (changed(() -> {
+			if (this.status.isFinished()) {
+				return false;
+			}
+			this.status = finalStatus;
+			this.message = reason;
+			this.finishedAt = new Date();
+			return true;
+		})) {
+			this.listener.jobFinished(this);
+			settleIfIdle();
+		}
+	}
+
+	/**
+	 * Marks the part as handed over to the background creator, the job does not settle before its branches have been created.
+	 */
+	void handOver(final Part part) {
+		part.handedOver = true;
+	}
+
+	/**
+	 * Called if the background creator did not accept the part, so nothing is created for it.
+	 */
+	void handOverFailed(final Part part) {
+		part.handedOver = false;
+		settleIfIdle();
+	}
+
+	/**
+	 * Settles the finished job even though parts handed over have not created their branches, called once a system admin
+	 * has made sure they are not running any more.
+	 */
+	void settle() {
+		if (changed(() -> {
+			if (!this.status.isFinished() || this.settled) {
+				return false;
+			}
+			this.settled = true;
+			return true;
+		})) {
+			this.listener.jobSettled(this);
+		}
+	}
+
+	private void settleIfIdle() {
+		if (this.parts.stream().noneMatch(part -> part.isHandedOver() && !part.isCreated())) {
+			settle();
+		}
+	}
+
+	/**
+	 * Registers a one-shot callback that is run on the next change of the job.
+	 * @return false if the job has already changed since the given version, in this case the callback is not registered
+	 */
+	public synchronized boolean onChangeAfter(final long knownVersion, final Runnable callback) {
+		if (this.version != knownVersion) {
+			return false;
+		}
+		this.changeCallbacks.add(callback);
+		return true;
+	}
+
+	public synchronized void removeChangeCallback(final Runnable callback) {
+		this.changeCallbacks.remove(callback);
+	}
+
+	/**
+	 * Waits until every branch of the part has been created or the job has settled.
+	 */
+	synchronized void awaitPart(final Part part) throws InterruptedException {
+		while (!this.settled && !part.isCreated()) {
+			wait(AWAIT_INTERVAL_MILLIS);
+		}
+	}
+
+	synchronized Set<Integer> getKnownBranchIds() {
+		return new HashSet<>(this.knownBranchIds);
+	}
+
+	synchronized boolean isKnownBranch(final Integer branchId) {
+		return this.knownBranchIds.contains(branchId);
+	}
+
+	synchronized long getLastProgressAt() {
+		return this.lastProgressAt;
+	}
+
+	/**
+	 * @return the units not created yet of the parts handed over to the background creator
+	 */
+	synchronized List<Unit> getPendingUnits() {
+		final List<Unit> result = new ArrayList<>();
+		for (final Part part : this.parts) {
+			if (part.isHandedOver()) {
+				for (final Unit unit : part.getUnits()) {
+					if (!unit.isCreated()) {
+						result.add(unit);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	void created(final Unit unit, final Integer branchId, final TrackerReferenceModel branch) {
+		final boolean[] completed = new boolean[1];
+		changed(() -> {
+			this.knownBranchIds.add(branchId);
+			unit.branch = branch;
+			this.lastProgressAt = System.currentTimeMillis();
+			if (!this.status.isFinished() && this.units.stream().allMatch(Unit::isCreated)) {
+				this.status = BranchJobStatus.COMPLETED;
+				this.finishedAt = new Date();
+				completed[0] = true;
+			}
+			return true;
+		});
+
+		this.listener.branchCreated(this, unit);
+		if (completed[0]) {
+			this.listener.jobFinished(this);
+		}
+		if (getStatus().isFinished()) {
+			settleIfIdle();
+		}
+	}
+
+	/**
+	 * Applies the change and wakes up the waiting clients if the job has actually changed.
+	 */
+	private boolean changed(final BooleanSupplier change) {
+		final List<Runnable> callbacks;
+		synchronized (this) {
+			if (!change.getAsBoolean()) {
+				return false;
+			}
+			this.version++;
+			notifyAll();
+			callbacks = new ArrayList<>(this.changeCallbacks);
+			this.changeCallbacks.clear();
+		}
+		callbacks.forEach(Runnable::run);
+		return true;
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching.job;
+
+import static java.util.stream.Collectors.toList;
+
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.stereotype.Component;
+
+import com.intland.codebeamer.controller.rest.v2.branching.model.BranchJobBranchModel;
+import com.intland.codebeamer.controller.rest.v2.branching.model.BranchJobModel;
+import com.intland.codebeamer.controller.rest.v2.model.reference.TrackerReferenceModel;
+
+@Component
+public class BranchJobConverter {
+
+	public BranchJobModel convert(final BranchJob job) {
+		final List<BranchJob.Unit> units = job.getUnits();
+
+		final BranchJobModel result = new BranchJobModel();
+		result.setId(job.getId());
+		result.setStatus(job.getStatus());
+		result.setSubmittedAt(job.getSubmittedAt());
+		result.setFinishedAt(job.getFinishedAt());
+		result.setMessage(job.getMessage());
+		result.setTotalCount(units.size());
+		result.setCreatedCount((int) units.stream().filter(BranchJob.Unit::isCreated).count());
+		result.setBranches(units.stream().map(this::convert).collect(toList()));
+		return result;
+	}
+
+	/**
+	 * Converts a job that does not run on this node from its stored state.
+	 */
+	public BranchJobModel convert(final BranchJobStore.StoredJob job) {
+		final BranchJobModel result = new BranchJobModel();
+		result.setId(job.getId());
+		result.setStatus(job.getStatus());
+		result.setSubmittedAt(new Date(job.getSubmittedAt()));
+		result.setFinishedAt(job.getFinishedAt() != null ? new Date(job.getFinishedAt().longValue()) : null);
+		result.setMessage(job.isInterrupted() ? "The job has been interrupted, it is resumed by the next node with free capacity, or by its owner." : job.getMessage());
+		result.setTotalCount(job.getUnits().size());
+		result.setCreatedCount((int) job.getUnits().stream().filter(BranchJobStore.StoredUnit::isCreated).count());
+		result.setBranches(job.getUnits().stream().map(this::convert).collect(toList()));
+		return result;
+	}
+
+	/**
+	 * @return strong ETag of the current state of the job
+	 */
+	public String getETag(final BranchJob job) {
+		return "\"" + job.getId() + "-" + job.getVersion() + "\"";
+	}
+
+	private BranchJobBranchModel convert(final BranchJobStore.StoredUnit unit) {
+		final BranchJobBranchModel result = new BranchJobBranchModel();
+		result.setSource(unit.getModel().getSource());
+		result.setName(unit.getModel().getName());
+		result.setCreated(unit.isCreated());
+		if (unit.isCreated()) {
+			final TrackerReferenceModel branch = new TrackerReferenceModel();
+			branch.setId(unit.getBranchId());
+			result.setBranch(branch);
+		}
+		return result;
+	}
+
+	public BranchJobBranchModel convert(final BranchJob.Unit unit) {
+		final BranchJobBranchModel result = new BranchJobBranchModel();
+		result.setSource(unit.getSource());
+		result.setName(unit.getName());
+		result.setCreated(unit.isCreated());
+		result.setBranch(unit.getBranch());
+		return result;
+	}
+}
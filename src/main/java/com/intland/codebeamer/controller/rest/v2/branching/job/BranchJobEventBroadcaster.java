@@ -0,0 +1,188 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching.job;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.intland.codebeamer.controller.rest.v2.branching.model.BranchJobEventModel;
+import com.intland.codebeamer.persistence.dto.UserDto;
+
+/**
+ * Pushes the changes of the branch jobs as server-sent events to the streams opened by the owner of the job.
+ * Events are sent from a single thread in the order of the changes, so slow clients do not hold up the jobs.
+ * Streams are kept alive with heartbeat comments, which also remove the streams of clients that have gone away.
+ */
+@Component
+public class BranchJobEventBroadcaster implements BranchJobListener {
+	private static final Logger logger = LogManager.getLogger(BranchJobEventBroadcaster.class);
+
+	public static final String JOB_STARTED = "job-started";
+	public static final String BRANCH_CREATED = "branch-created";
+	public static final String JOB_FINISHED = "job-finished";
+	public static final String JOB_STATE = "job-state";
+
+	private static final long STREAM_TIMEOUT_MILLIS = TimeUnit.HOURS.toMillis(1);
+	private static final long HEARTBEAT_INTERVAL_SECONDS = 30;
+	private static final int MAX_STREAMS_PER_USER = 5;
+
+	@Autowired
+	private BranchJobRegistry branchJobRegistry;
+
+	@Autowired
+	private BranchJobConverter branchJobConverter;
+
+	private final Map<Integer, List<SseEmitter>> streamsByUser = new ConcurrentHashMap<>();
+
+	private ScheduledExecutorService sender;
+
+	@PostConstruct
+	public void start() {
+		this.sender = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("branch-job-events").setDaemon(true).build());
+		this.sender.scheduleWithFixedDelay(this::sendHeartbeats, HEARTBEAT_INTERVAL_SECONDS, HEARTBEAT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	public void stop() {
+		this.sender.shutdownNow();
+		this.streamsByUser.values().forEach(streams -> streams.forEach(SseEmitter::complete));
+	}
+
+	/**
+	 * Opens a stream of the job events of the user, starting with the current state of the unfinished jobs.
+	 * The oldest stream of the user is closed if the user has too many.
+	 */
+	public SseEmitter subscribe(final UserDto user) {
+		final SseEmitter stream = new SseEmitter(Long.valueOf(STREAM_TIMEOUT_MILLIS));
+		final List<SseEmitter> streams = this.streamsByUser.compute(user.getId(), (userId, userStreams) -> {
+			final List<SseEmitter> result = userStreams != null ? userStreams : new CopyOnWriteArrayList<>();
+			result.add(stream);
+			return result;
+		});
+		stream.onCompletion(() -> streams.remove(stream));
+		stream.onTimeout(() -> streams.remove(stream));
+		while (streams.size() > MAX_STREAMS_PER_USER) {
+			streams.remove(0).complete();
+		}
+
+		for (final BranchJob job : this.branchJobRegistry.findUnfinishedJobs(user)) {
+			final String id = getEventId(job);
+			final BranchJobEventModel event = convert(job, null);
+			this.sender.execute(() -> send(stream, streams, id, JOB_STATE, event));
+		}
+		return stream;
+	}
+
+	@Override
+	public void jobStarted(final BranchJob job) {
+		publish(JOB_STARTED, job, null);
+	}
+
+	@Override
+	public void branchCreated(final BranchJob job, final BranchJob.Unit unit) {
+		publish(BRANCH_CREATED, job, unit);
+	}
+
+	@Override
+	public void jobFinished(final BranchJob job) {
+		publish(JOB_FINISHED, job, null);
+	}
+
+	private void publish(final String name, final BranchJob job, final BranchJob.Unit unit) {
+		final List<SseEmitter> streams = this.streamsByUser.get(job.getUser().getId());
+		if (streams != null && !streams.isEmpty()) {
+			// the state is captured now, the job may have changed again by the time the event is sent
+			final String id = getEventId(job);
+			final BranchJobEventModel event = convert(job, unit);
+			this.sender.execute(() -> streams.forEach(stream -> send(stream, streams, id, name, event)));
+		}
+	}
+
+	private static String getEventId(final BranchJob job) {
+		return job.getId() + "-" + job.getVersion();
+	}
+
+	private void send(final SseEmitter stream, final List<SseEmitter> streams, final String id, final String name, final BranchJobEventModel event) {
+		try {
+			stream.send(SseEmitter.event()
+					.id(id)
+					.name(name)
+					.data(event));
+		} catch (final IOException | IllegalStateException e) {
+			logger.debug("Closing branch job event stream", e);
+			streams.remove(stream);
+			stream.completeWithError(e);
+		}
+	}
+
+	private void sendHeartbeats() {
+		this.streamsByUser.values().forEach(streams -> streams.forEach(stream -> {
+			try {
+				stream.send(SseEmitter.event().comment("heartbeat"));
+			} catch (final IOException | IllegalStateException e) {
+				streams.remove(stream);
+				stream.completeWithError(e);
+			}
+		}));
+		this.streamsByUser.keySet().forEach(userId -> this.streamsByUser.computeIfPresent(userId,
+				(key, streams) -> streams.isEmpty() ? null : streams));
+	}
+
+	private BranchJobEventModel convert(final BranchJob job, final BranchJob.Unit unit) {
+		final List<BranchJob.Unit> units = job.getUnits();
+
+		final BranchJobEventModel result = new BranchJobEventModel();
+		result.setJobId(job.getId());
+		result.setStatus(job.getStatus());
+		result.setCreatedCount((int) units.stream().filter(BranchJob.Unit::isCreated).count());
+		result.setTotalCount(units.size());
+		result.setMessage(job.getMessage());
+		result.setBranch(unit != null ? this.branchJobConverter.convert(unit) : null);
+		return result;
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching.job;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.intland.codebeamer.controller.support.branch.CreateBranchParameterDto;
+import com.intland.codebeamer.controller.support.branch.jobs.BackgroundBranchCreator;
+import com.intland.codebeamer.persistence.dto.UserDto;
+
+/**
+ * Runs the parts of the branch jobs on a bounded pool of workers.
+ * The parts of a job do not rewrite references to each other, so they are handed over to the background creator
+ * in parallel. A worker stays busy until every branch of its part has been created, which limits the number of
+ * branch copies running at the same time to the number of workers.
+ */
+@Component
+public class BranchJobExecutor {
+	private static final Logger logger = LogManager.getLogger(BranchJobExecutor.class);
+
+	private static final int WORKER_COUNT = 4;
+
+	/**
+	 * Hands the parameters of a part over to the background creator of codeBeamer.
+	 */
+	@FunctionalInterface
+	interface HandOver {
+		void createBranches(HttpServletRequest request, UserDto user, List<CreateBranchParameterDto> parameters);
+	}
+
+	@Autowired
+	private BackgroundBranchCreator branchCreator;
+
+	@Autowired
+	private BranchJobStore branchJobStore;
+
+	private HandOver handOver;
+
+	private ExecutorService workers;
+
+	public BranchJobExecutor() {
+	}
+
+	BranchJobExecutor(final HandOver handOver, final BranchJobStore branchJobStore) {
+		this.handOver = handOver;
+		this.branchJobStore = branchJobStore;
+	}
+
+	@PostConstruct
+	public void start() {
+		if (this.handOver == null) {
+			this.handOver = (request, user, parameters) -> this.branchCreator.createMultipleBranchesInBackground(request, user, parameters, false);
+		}
+		this.workers = Executors.newFixedThreadPool(WORKER_COUNT,
+				new ThreadFactoryBuilder().setNameFormat("branch-job-worker-%d").setDaemon(true).build());
+	}
+
+	@PreDestroy
+	public void stop() {
+		this.workers.shutdownNow();
+	}
+
+	/**
+	 * Queues every part of the job. The request has to be detached, because the parts may start after it has been completed.
+	 * A job without parts completes at once, so it does not keep its slot.
+	 */
+	public void execute(final BranchJob job, final DetachedHttpServletRequest request) {
+		if (job.getParts().isEmpty()) {
+			job.start();
+			job.complete();
+			return;
+		}
+		for (final BranchJob.Part part : job.getParts()) {
+			this.workers.execute(() -> run(job, part, request));
+		}
+	}
+
+	private void run(final BranchJob job, final BranchJob.Part part, final HttpServletRequest request) {
+		final List<CreateBranchParameterDto> parameters = part.takeParameters();
+		if (parameters == null || job.getStatus().isFinished()) {
+			return;
+		}
+
+		RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+		try {
+			job.start();
+			// a node that has lost the lease must not copy branches, the job may already run on another node
+			if (!this.branchJobStore.renewLease(job.getId())) {
+				job.fail("The lease of the job has been lost, it may have been resumed on another node.");
+				return;
+			}
+			job.handOver(part);
+			try {
+				this.handOver.createBranches(request, job.getUser(), parameters);
+			} catch (final RuntimeException e) {
+				job.handOverFailed(part);
+				throw e;
+			}
+			job.awaitPart(part);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			job.fail("Branch creation has been interrupted.");
+		} catch (final RuntimeException e) {
+			logger.warn("Could not create branches of job " + job.getId(), e);
+			job.fail(e.getMessage());
+		} finally {
+			RequestContextHolder.resetRequestAttributes();
+		}
+	}
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching.job;
+
+import static java.util.stream.Collectors.toCollection;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.intland.codebeamer.controller.rest.v2.converter.reference.TrackerReferenceConverter;
+import com.intland.codebeamer.controller.support.branch.CreateBranchParameterDto;
+import com.intland.codebeamer.persistence.dao.BranchDao;
+import com.intland.codebeamer.persistence.dto.BranchDto;
+import com.intland.codebeamer.persistence.dto.TrackerDto;
+import com.intland.codebeamer.persistence.dto.UserDto;
+
+/**
+ * Keeps track of the branch creation jobs started on this node.
+ * The background creator does not report progress, so running jobs are refreshed periodically
+ * by looking for the new branches of their source trackers: one query per running job and refresh.
+ * Cancelled or failed jobs are refreshed the same way until the parts already handed over have been created.
+ * A job that creates no branch for the stall timeout fails, but its parts handed over may still be copying, so it does not
+ * settle: it keeps its slot and its idempotency key until its branches appear or a system admin releases it.
+ */
+@Component
+public class BranchJobRegistry {
+	private static final Logger logger = LogManager.getLogger(BranchJobRegistry.class);
+
+	private static final long REFRESH_INTERVAL_MILLIS = 2000;
+	private static final long STALL_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+	private static final long RETENTION_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+	@Autowired
+	private BranchDao branchDao;
+
+	@Autowired
+	private TrackerReferenceConverter trackerReferenceConverter;
+
+	@Autowired(required = false)
+	private List<BranchJobListener> listeners = Collections.emptyList();
+
+	private final Map<String, BranchJob> jobs = new ConcurrentHashMap<>();
+
+	private final BranchJobListener dispatcher = new BranchJobListener() {
+		@Override
+		public void jobStarted(final BranchJob job) {
+			notifyListeners(job, listener -> listener.jobStarted(job));
+		}
+
+		@Override
+		public void branchCreated(final BranchJob job, final BranchJob.Unit unit) {
+			notifyListeners(job, listener -> listener.branchCreated(job, unit));
+		}
+
+		@Override
+		public void jobFinished(final BranchJob job) {
+			notifyListeners(job, listener -> listener.jobFinished(job));
+		}
+
+		@Override
+		public void jobSettled(final BranchJob job) {
+			notifyListeners(job, listener -> listener.jobSettled(job));
+		}
+	};
+
+	private ScheduledExecutorService refresher;
+
+	@PostConstruct
+	public void start() {
+		this.refresher = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("branch-job-refresher").setDaemon(true).build());
+		this.refresher.scheduleWithFixedDelay(this::refresh, REFRESH_INTERVAL_MILLIS, REFRESH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void stop() {
+		this.refresher.shutdownNow();
+	}
+
+	/**
+	 * Registers a new job for the given parts. The already existing branches of the source trackers are
+	 * remembered, so that only the branches created by this job are reported as its progress.
+	 */
+	public BranchJob register(final UserDto user, final List<List<CreateBranchParameterDto>> parts) {
+		return register(UUID.randomUUID().toString(), user, parts);
+	}
+
+	/**
+	 * Registers a job with the given id, used when a stored job is resumed on this node.
+	 */
+	public BranchJob register(final String jobId, final UserDto user, final List<List<CreateBranchParameterDto>> parts) {
+		final Set<Integer> sourceIds = parts.stream()
+				.flatMap(List::stream)
+				.map(CreateBranchParameterDto::getSource)
+				.map(TrackerDto::getId)
+				.collect(toSet());
+
+		final Set<Integer> knownBranchIds = this.branchDao.findByTrackers(user, sourceIds).stream()
+				.map(BranchDto::getId)
+				.collect(toCollection(HashSet::new));
+
+		final List<BranchJob.Part> jobParts = parts.stream()
+				.map(parameters -> new BranchJob.Part(parameters.stream()
+						.map(parameter -> new BranchJob.Unit(
+								this.trackerReferenceConverter.convert(parameter.getSource()), parameter.getBranchParam().getName()))
+						.collect(toList()), parameters))
+				.collect(toList());
+
+		final Set<Integer> projectIds = parts.stream()
+				.flatMap(List::stream)
+				.map(parameter -> parameter.getSource().getProject().getId())
+				.collect(toSet());
+
+		final BranchJob job = new BranchJob(jobId, user, jobParts, projectIds, knownBranchIds, this.dispatcher);
+		this.jobs.put(job.getId(), job);
+		return job;
+	}
+
+	public BranchJob findJob(final String jobId) {
+		return this.jobs.get(jobId);
+	}
+
+	/**
+	 * @return the jobs of the user that have not finished yet
+	 */
+	public List<BranchJob> findUnfinishedJobs(final UserDto user) {
+		return this.jobs.values().stream()
+				.filter(job -> job.isOwnedBy(user) && !job.getStatus().isFinished())
+				.sorted(Comparator.comparing(BranchJob::getSubmittedAt))
+				.collect(toList());
+	}
+
+	/**
+	 * Settles a finished job whose parts handed over to the background creator will not create their branches any more,
+	 * e.g. because their copy failed in codeBeamer. The job frees its slot and its request can be retried.
+	 * @return false if the job has not finished or has already settled
+	 */
+	public boolean release(final BranchJob job) {
+		if (!job.getStatus().isFinished() || job.isSettled()) {
+			return false;
+		}
+		job.settle();
+		return true;
+	}
+
+	public void unregister(final BranchJob job) {
+		this.jobs.remove(job.getId());
+	}
+
+	private void notifyListeners(final BranchJob job, final Consumer<BranchJobListener> notification) {
+		for (final BranchJobListener listener : this.listeners) {
+			try {
+				notification.accept(listener);
+			} catch (final RuntimeException e) {
+				logger.warn("Branch job listener failed for job " + job.getId(), e);
+			}
+		}
+	}
+
+	private void refresh() {
+		final long now = System.currentTimeMillis();
+		for (final BranchJob job : this.jobs.values()) {
+			try {
+				if (job.isSettled()) {
+					if (now - job.getFinishedAt().getTime() > RETENTION_MILLIS) {
+						this.jobs.remove(job.getId());
+					}
+				} else if (job.getStatus() != BranchJobStatus.QUEUED) {
+					refresh(job, now);
+				}
+			} catch (final RuntimeException e) {
+				logger.warn("Could not refresh branch job " + job.getId(), e);
+			}
+		}
+	}
+
+	private void refresh(final BranchJob job, final long now) {
+		final List<BranchJob.Unit> pendingUnits = job.getPendingUnits();
+		final Set<Integer> sourceIds = pendingUnits.stream()
+				.map(unit -> unit.getSource().getId())
+				.collect(toSet());
+
+		final List<BranchDto> branches = sourceIds.isEmpty() ? Collections.emptyList() : this.branchDao.findByTrackers(job.getUser(), sourceIds);
+		for (final BranchDto branch : branches) {
+			if (job.isKnownBranch(branch.getId())) {
+				continue;
+			}
+			for (final BranchJob.Unit unit : pendingUnits) {
+				if (!unit.isCreated() && unit.getSource().getId().equals(branch.getTrackerIdOfBranch())
+						&& Objects.equals(unit.getName(), branch.getName())) {
+					job.created(unit, branch.getId(), this.trackerReferenceConverter.convert(branch));
+					break;
+				}
+			}
+		}
+
+		if (!job.getStatus().isFinished() && now - job.getLastProgressAt() > STALL_TIMEOUT_MILLIS) {
+			// the copy may still be running, the job only settles once its branches appear or it is released
+			job.fail(String.format("No branch has been created in the last %d minutes. The branches handed over to codeBeamer may still be created,"
+					+ " a system admin can release the job once they are known to have stopped.", TimeUnit.MILLISECONDS.toMinutes(STALL_TIMEOUT_MILLIS)));
+		}
+	}
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching.job;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Admission control in front of the {@link BranchJobExecutor}: limits the number of jobs running at the same time,
+ * globally and per project, and keeps the other jobs in a bounded queue ordered by priority and submission.
+ * Jobs keep their slot after they finish, fail or get cancelled, until the parts handed over to the background creator
+ * have been created or a system admin has released the job, as the background creator cannot be stopped.
+ */
+@Component
+public class BranchJobScheduler implements BranchJobListener {
+	private static final int MAX_RUNNING_JOBS = 4;
+	private static final int MAX_RUNNING_JOBS_PER_PROJECT = 2;
+	private static final int MAX_QUEUED_JOBS = 20;
+	private static final long RETRY_AFTER_SECONDS = 60;
+
+	private static class QueuedJob implements Comparable<QueuedJob> {
+		private final BranchJob job;
+		private final BranchJobPriority priority;
+		private final long sequence;
+		private final DetachedHttpServletRequest request;
+
+		QueuedJob(final BranchJob job, final BranchJobPriority priority, final long sequence, final DetachedHttpServletRequest request) {
+			this.job = job;
+			this.priority = priority;
+			this.sequence = sequence;
+			this.request = request;
+		}
+
+		@Override
+		public int compareTo(final QueuedJob other) {
+			final int result = this.priority.compareTo(other.priority);
+			return result != 0 ? result : Long.compare(this.sequence, other.sequence);
+		}
+	}
+
+	@Autowired
+	private BranchJobExecutor branchJobExecutor;
+
+	/**
+	 * Names of the request attributes the background creator needs, copied into the detached request of a job.
+	 * The creator gets the user of the job as argument, so none are needed by default.
+	 */
+	@Value("${branching.jobs.requestAttributes:}")
+	private String[] requestAttributes = new String[0];
+
+	private final PriorityQueue<QueuedJob> queue = new PriorityQueue<>();
+	private final Set<BranchJob> runningJobs = new HashSet<>();
+	private final Map<Integer, Integer> runningJobCountByProject = new HashMap<>();
+	private long sequence;
+
+	/**
+	 * Fails fast if a new job would not fit into the queue, to be called before the job is prepared.
+	 */
+	public synchronized void checkCapacity() throws BranchJobRejectedException {
+		if (this.queue.size() >= MAX_QUEUED_JOBS) {
+			throw new BranchJobRejectedException(
+					String.format("Too many branch jobs are waiting (%d), try again later.", Integer.valueOf(this.queue.size())), RETRY_AFTER_SECONDS);
+		}
+	}
+
+	/**
+	 * @return a copy of the request the parts of a job can be handed over with after the request has been completed
+	 */
+	public DetachedHttpServletRequest detach(final HttpServletRequest request) {
+		return new DetachedHttpServletRequest(request, Arrays.asList(this.requestAttributes));
+	}
+
+	public void submit(final BranchJob job, final DetachedHttpServletRequest detachedRequest, final BranchJobPriority priority) throws BranchJobRejectedException {
+		final List<QueuedJob> startedJobs;
+		synchronized (this) {
+			checkCapacity();
+			this.queue.add(new QueuedJob(job, priority != null ? priority : BranchJobPriority.NORMAL, this.sequence++, detachedRequest));
+			startedJobs = dispatch();
+		}
+		start(startedJobs);
+	}
+
+	/**
+	 * Cancels a queued or running job. Its remaining parts are skipped, but parts that have already been handed over
+	 * to the background creator still complete and the job keeps its slot until they do.
+	 */
+	public void cancel(final BranchJob job) {
+		job.cancel();
+	}
+
+	/**
+	 * @return true if no job is waiting and a job could start at once, apart from the limit per project
+	 */
+	public synchronized boolean isIdle() {
+		return this.queue.isEmpty() && this.runningJobs.size() < MAX_RUNNING_JOBS;
+	}
+
+	public synchronized int getQueuedJobCount() {
+		return this.queue.size();
+	}
+
+	public synchronized int getRunningJobCount() {
+		return this.runningJobs.size();
+	}
+
+	@Override
+	public void jobSettled(final BranchJob job) {
+		final List<QueuedJob> startedJobs;
+		synchronized (this) {
+			this.queue.removeIf(queuedJob -> queuedJob.job == job);
+			if (this.runningJobs.remove(job)) {
+				for (final Integer projectId : job.getProjectIds()) {
+					this.runningJobCountByProject.computeIfPresent(projectId,
+							(key, count) -> count.intValue() > 1 ? Integer.valueOf(count.intValue() - 1) : null);
+				}
+			}
+			startedJobs = dispatch();
+		}
+		start(startedJobs);
+	}
+
+	/**
+	 * Takes the queued jobs that fit into the limits, in the order of the queue.
+	 */
+	private List<QueuedJob> dispatch() {
+		final List<QueuedJob> candidates = new ArrayList<>(this.queue);
+		Collections.sort(candidates);
+
+		final List<QueuedJob> result = new ArrayList<>();
+		for (final QueuedJob candidate : candidates) {
+			if (this.runningJobs.size() >= MAX_RUNNING_JOBS) {
+				break;
+			}
+			if (candidate.job.getProjectIds().stream()
+					.allMatch(projectId -> this.runningJobCountByProject.getOrDefault(projectId, Integer.valueOf(0)).intValue() < MAX_RUNNING_JOBS_PER_PROJECT)) {
+				this.queue.remove(candidate);
+				this.runningJobs.add(candidate.job);
+				candidate.job.getProjectIds().forEach(projectId -> this.runningJobCountByProject.merge(projectId, Integer.valueOf(1),
+						(count, increment) -> Integer.valueOf(count.intValue() + increment.intValue())));
+				result.add(candidate);
+			}
+		}
+		return result;
+	}
+
+	private void start(final List<QueuedJob> jobs) {
+		for (final QueuedJob queuedJob : jobs) {
+			this.branchJobExecutor.execute(queuedJob.job, queuedJob.request);
+		}
+	}
+}
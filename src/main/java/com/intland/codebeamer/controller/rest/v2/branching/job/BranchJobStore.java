@@ -0,0 +1,640 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching.job;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.intland.codebeamer.controller.rest.v2.branching.model.CreateBranchModel;
+import com.intland.codebeamer.controller.rest.v2.model.reference.TrackerReferenceModel;
+import com.intland.codebeamer.controller.support.branch.TrackerBranchPermissionInheritance;
+
+/**
+ * Keeps the branch jobs in the database, so that a job interrupted by the restart of its node can be resumed
+ * on any node of the cluster. Each branch of a job is stored with the request it was created from, and the id
+ * of the new branch is recorded as a checkpoint as soon as the branch is found. The ids of the branches that
+ * existed when the job was registered are stored too, so a branch created without checkpoint can be told apart.
+ * The node running a job holds a lease on it and renews it until the job has settled, so a job whose parts handed over
+ * to the background creator may still be running is not retried on another node. Once the lease has expired, any node
+ * can claim the job and resume it: the request the job was submitted with is stored as a snapshot, split into chunks
+ * of {@value #REQUEST_CHUNK_LENGTH} characters, so the job can be handed over with a rebuilt request on another node.
+ * The store is off unless the branching.jobStore.enabled property is true and the application context has a unique
+ * data source. The tables are not created by the store, they are created by running {@value #SCRIPT} once.
+ * Only portable SQL is used: numbers and timestamps (epoch milliseconds) are stored as INTEGER and NUMERIC columns.
+ */
+@Component
+public class BranchJobStore implements BranchJobListener {
+	private static final Logger logger = LogManager.getLogger(BranchJobStore.class);
+
+	private static final String JOB_TABLE = "branching_job";
+	private static final String UNIT_TABLE = "branching_job_unit";
+	private static final String KNOWN_BRANCH_TABLE = "branching_job_known_branch";
+	private static final String REQUEST_TABLE = "branching_job_request";
+	private static final String[] TABLES = { JOB_TABLE, UNIT_TABLE, KNOWN_BRANCH_TABLE, REQUEST_TABLE };
+	private static final String SCRIPT = "branching-job-store.sql";
+
+	private static final String UNFINISHED = "status IN ('" + BranchJobStatus.QUEUED.name() + "', '" + BranchJobStatus.RUNNING.name() + "')";
+
+	private static final String SETTLED_BEFORE = "finished_at IS NOT NULL AND finished_at < ? AND (lease_until IS NULL OR lease_until < ?)";
+
+	private static final long LEASE_MILLIS = TimeUnit.MINUTES.toMillis(2);
+	private static final long RENEW_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+	private static final long RETENTION_MILLIS = TimeUnit.DAYS.toMillis(7);
+	private static final int MESSAGE_LENGTH = 4000;
+	// at most 3 bytes per character in UTF-8, so a chunk also fits into a column limited to 4000 bytes
+	private static final int REQUEST_CHUNK_LENGTH = 1000;
+
+	private static final ObjectMapper JSON = new ObjectMapper();
+
+	/**
+	 * A job as stored in the database.
+	 */
+	public static class StoredJob {
+		private final String id;
+		private final Integer userId;
+		private final BranchJobStatus status;
+		private final BranchJobPriority priority;
+		private final long submittedAt;
+		private final Long finishedAt;
+		private final String message;
+		private final boolean leaseExpired;
+		private final List<StoredUnit> units = new ArrayList<>();
+		private final Set<Integer> knownBranchIds = new HashSet<>();
+
+		StoredJob(final ResultSet row, final long now) throws SQLException {
+			this.id = row.getString("id");
+			this.userId = Integer.valueOf(row.getInt("user_id"));
+			this.status = BranchJobStatus.valueOf(row.getString("status"));
+			this.priority = BranchJobPriority.valueOf(row.getString("priority"));
+			this.submittedAt = row.getLong("submitted_at");
+			this.finishedAt = getLong(row, "finished_at");
+			this.message = row.getString("message");
+			final Long leaseUntil = getLong(row, "lease_until");
+			this.leaseExpired = leaseUntil == null || leaseUntil.longValue() < now;
+		}
+
+		public String getId() {
+			return this.id;
+		}
+
+		public Integer getUserId() {
+			return this.userId;
+		}
+
+		public BranchJobStatus getStatus() {
+			return this.status;
+		}
+
+		public BranchJobPriority getPriority() {
+			return this.priority;
+		}
+
+		public long getSubmittedAt() {
+			return this.submittedAt;
+		}
+
+		public Long getFinishedAt() {
+			return this.finishedAt;
+		}
+
+		public String getMessage() {
+			return this.message;
+		}
+
+		/**
+		 * @return true if the job has finished and no node waits for its parts handed over to the background creator any more
+		 */
+		public boolean isSettled() {
+			return this.status.isFinished() && this.leaseExpired;
+		}
+
+		/**
+		 * @return true if the job has not finished, but no node holds its lease any more
+		 */
+		public boolean isInterrupted() {
+			return !this.status.isFinished() && this.leaseExpired;
+		}
+
+		/**
+		 * @return the branches of the job in the order of their parts
+		 */
+		public List<StoredUnit> getUnits() {
+			return this.units;
+		}
+
+		/**
+		 * @return the ids of the branches of the sources that existed when the job was registered or were created by it
+		 */
+		public Set<Integer> getKnownBranchIds() {
+			return this.knownBranchIds;
+		}
+	}
+
+	/**
+	 * A branch of a stored job with the request it is created from and the id of the new branch, once it has been created.
+	 */
+	public static class StoredUnit {
+		private final int partIndex;
+		private final CreateBranchModel model;
+		private final Integer branchId;
+
+		StoredUnit(final ResultSet row) throws SQLException {
+			this.partIndex = row.getInt("part_index");
+
+			final TrackerReferenceModel source = new TrackerReferenceModel();
+			source.setId(Integer.valueOf(row.getInt("source_id")));
+			final String inheritance = row.getString("permission_inheritance");
+
+			this.model = new CreateBranchModel();
+			this.model.setSource(source);
+			this.model.setBaselineId(getInteger(row, "baseline_id"));
+			this.model.setName(row.getString("name"));
+			this.model.setKeyName(row.getString("key_name"));
+			this.model.setColor(row.getString("color"));
+			this.model.setDescription(row.getString("description"));
+			this.model.setPermissionInheritance(inheritance != null ? TrackerBranchPermissionInheritance.valueOf(inheritance) : null);
+			this.branchId = getInteger(row, "branch_id");
+		}
+
+		public int getPartIndex() {
+			return this.partIndex;
+		}
+
+		public CreateBranchModel getModel() {
+			return this.model;
+		}
+
+		public Integer getBranchId() {
+			return this.branchId;
+		}
+
+		public boolean isCreated() {
+			return this.branchId != null;
+		}
+	}
+
+	@Autowired
+	private ObjectProvider<DataSource> dataSourceProvider;
+
+	@Value("${branching.jobStore.enabled:false}")
+	private boolean enabled;
+
+	private final String nodeId = UUID.randomUUID().toString();
+
+	private JdbcTemplate jdbc;
+	private TransactionTemplate transactions;
+	private ScheduledExecutorService leaseRenewer;
+
+	@PostConstruct
+	public void start() {
+		if (!this.enabled) {
+			logger.info("Branch job store is not enabled, branch jobs are not stored");
+			return;
+		}
+
+		final DataSource dataSource = this.dataSourceProvider.getIfUnique();
+		if (dataSource == null) {
+			logger.warn("No unique data source, branch jobs are not stored");
+			return;
+		}
+		start(dataSource);
+	}
+
+	void start(final DataSource dataSource) {
+		try {
+			final JdbcTemplate template = new JdbcTemplate(dataSource);
+			for (final String table : TABLES) {
+				if (!tableExists(template, table)) {
+					logger.warn("Table " + table + " is missing, run " + SCRIPT + " to create it. Branch jobs are not stored");
+					return;
+				}
+			}
+			this.jdbc = template;
+			this.transactions = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+		} catch (final DataAccessException e) {
+			logger.warn("Could not read the branch job tables, branch jobs are not stored", e);
+			return;
+		}
+
+		this.leaseRenewer = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("branch-job-leases").setDaemon(true).build());
+		this.leaseRenewer.scheduleWithFixedDelay(this::maintain, RENEW_INTERVAL_MILLIS, RENEW_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (this.leaseRenewer != null) {
+			this.leaseRenewer.shutdownNow();
+		}
+	}
+
+	public boolean isEnabled() {
+		return this.jdbc != null;
+	}
+
+	/**
+	 * Stores a new job with the requests of its branches, the branches known to it and the request it has been submitted with,
+	 * leased by this node.
+	 * @param idempotencyKey key of the request that started the job, see {@link #findJobId}
+	 * @param parts the requests of the branches by part, in the order of the parts of the job
+	 * @return false if the job could not be stored, it still runs but cannot be resumed
+	 */
+	public boolean save(final BranchJob job, final String idempotencyKey, final List<List<CreateBranchModel>> parts, final BranchJobPriority priority,
+			final DetachedHttpServletRequest request) {
+		if (!isEnabled()) {
+			return false;
+		}
+
+		final long now = System.currentTimeMillis();
+		final List<Object[]> units = new ArrayList<>();
+		for (int part = 0; part < parts.size(); part++) {
+			for (int unit = 0; unit < parts.get(part).size(); unit++) {
+				final CreateBranchModel model = parts.get(part).get(unit);
+				units.add(new Object[] { job.getId(), Integer.valueOf(part), Integer.valueOf(unit), model.getSource().getId(),
+						model.getBaselineId(), model.getName(), model.getKeyName(), model.getColor(), model.getDescription(),
+						model.getPermissionInheritance() != null ? model.getPermissionInheritance().name() : null });
+			}
+		}
+
+		final List<Object[]> knownBranches = job.getKnownBranchIds().stream()
+				.map(branchId -> new Object[] { job.getId(), branchId })
+				.collect(Collectors.toList());
+
+		try {
+			this.transactions.execute(status -> {
+				this.jdbc.update("INSERT INTO " + JOB_TABLE + " (id, user_id, idempotency_key, status, priority, submitted_at, lease_owner, lease_until) VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
+						job.getId(), job.getUser().getId(), idempotencyKey, BranchJobStatus.QUEUED.name(), (priority != null ? priority : BranchJobPriority.NORMAL).name(),
+						Long.valueOf(job.getSubmittedAt().getTime()), this.nodeId, Long.valueOf(now + LEASE_MILLIS));
+				this.jdbc.batchUpdate("INSERT INTO " + UNIT_TABLE + " (job_id, part_index, unit_index, source_id, baseline_id, name, key_name, color, description, permission_inheritance)"
+						+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", units,
+						new int[] { Types.VARCHAR, Types.INTEGER, Types.INTEGER, Types.INTEGER, Types.INTEGER,
+								Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR });
+				this.jdbc.batchUpdate("INSERT INTO " + KNOWN_BRANCH_TABLE + " (job_id, branch_id) VALUES (?, ?)", knownBranches,
+						new int[] { Types.VARCHAR, Types.INTEGER });
+				insertRequest(job.getId(), request);
+				return null;
+			});
+			return true;
+		} catch (final DataAccessException e) {
+			logger.warn("Could not store branch job " + job.getId() + ", it cannot be resumed", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Removes a job that has been rejected after it was stored.
+	 */
+	public void delete(final BranchJob job) {
+		if (!isEnabled()) {
+			return;
+		}
+
+		try {
+			this.transactions.execute(status -> {
+				this.jdbc.update("DELETE FROM " + UNIT_TABLE + " WHERE job_id = ?", job.getId());
+				this.jdbc.update("DELETE FROM " + KNOWN_BRANCH_TABLE + " WHERE job_id = ?", job.getId());
+				this.jdbc.update("DELETE FROM " + REQUEST_TABLE + " WHERE job_id = ?", job.getId());
+				this.jdbc.update("DELETE FROM " + JOB_TABLE + " WHERE id = ?", job.getId());
+				return null;
+			});
+		} catch (final DataAccessException e) {
+			logger.warn("Could not delete branch job " + job.getId(), e);
+		}
+	}
+
+	/**
+	 * @return the stored job with its branches, or null if it is not stored
+	 */
+	public StoredJob find(final String jobId) {
+		if (!isEnabled()) {
+			return null;
+		}
+
+		final long now = System.currentTimeMillis();
+		final List<StoredJob> jobs = this.jdbc.query("SELECT * FROM " + JOB_TABLE + " WHERE id = ?",
+				(row, index) -> new StoredJob(row, now), jobId);
+		if (jobs.isEmpty()) {
+			return null;
+		}
+
+		final StoredJob result = jobs.get(0);
+		result.units.addAll(this.jdbc.query("SELECT * FROM " + UNIT_TABLE + " WHERE job_id = ? ORDER BY part_index, unit_index",
+				(row, index) -> new StoredUnit(row), jobId));
+		result.knownBranchIds.addAll(this.jdbc.queryForList("SELECT branch_id FROM " + KNOWN_BRANCH_TABLE + " WHERE job_id = ?",
+				Integer.class, jobId));
+		return result;
+	}
+
+	/**
+	 * @return the id of the last job started with the idempotency key that has not settled yet or has been started
+	 * or finished since the given time, or null
+	 */
+	public String findJobId(final String idempotencyKey, final long since) {
+		if (!isEnabled()) {
+			return null;
+		}
+
+		final List<String> jobIds = this.jdbc.queryForList("SELECT id FROM " + JOB_TABLE + " WHERE idempotency_key = ?"
+				+ " AND (submitted_at >= ? OR finished_at IS NULL OR finished_at >= ? OR lease_until >= ?) ORDER BY submitted_at DESC",
+				String.class, idempotencyKey, Long.valueOf(since), Long.valueOf(since), Long.valueOf(System.currentTimeMillis()));
+		return jobIds.isEmpty() ? null : jobIds.get(0);
+	}
+
+	/**
+	 * @return the ids of the interrupted jobs, the oldest first
+	 */
+	public List<String> findInterruptedJobIds() {
+		if (!isEnabled()) {
+			return new ArrayList<>();
+		}
+
+		return this.jdbc.queryForList("SELECT id FROM " + JOB_TABLE + " WHERE " + UNFINISHED + " AND (lease_until IS NULL OR lease_until < ?) ORDER BY submitted_at",
+				String.class, Long.valueOf(System.currentTimeMillis()));
+	}
+
+	/**
+	 * @return the snapshot of the request the job has been submitted or last resumed with, see {@link DetachedHttpServletRequest#toSnapshot()},
+	 * or null if none is stored
+	 */
+	public Map<String, Object> findRequest(final String jobId) {
+		if (!isEnabled()) {
+			return null;
+		}
+
+		final List<String> chunks = this.jdbc.queryForList("SELECT content FROM " + REQUEST_TABLE + " WHERE job_id = ? ORDER BY chunk_index",
+				String.class, jobId);
+		if (chunks.isEmpty()) {
+			return null;
+		}
+		try {
+			return JSON.readValue(String.join("", chunks), new TypeReference<Map<String, Object>>() {});
+		} catch (final IOException e) {
+			logger.warn("Could not read the request of branch job " + jobId, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Replaces the stored request of a job claimed by this node with the request it is resumed with.
+	 */
+	public void saveRequest(final String jobId, final DetachedHttpServletRequest request) {
+		if (isEnabled()) {
+			this.transactions.execute(status -> {
+				if (this.jdbc.queryForObject("SELECT COUNT(*) FROM " + JOB_TABLE + " WHERE id = ? AND lease_owner = ?", Integer.class, jobId, this.nodeId).intValue() == 1) {
+					this.jdbc.update("DELETE FROM " + REQUEST_TABLE + " WHERE job_id = ?", jobId);
+					insertRequest(jobId, request);
+				}
+				return null;
+			});
+		}
+	}
+
+	private void insertRequest(final String jobId, final DetachedHttpServletRequest request) {
+		final String content;
+		try {
+			content = JSON.writeValueAsString(request.toSnapshot());
+		} catch (final JsonProcessingException e) {
+			throw new IllegalStateException("Could not write the request of branch job " + jobId, e);
+		}
+
+		final List<Object[]> chunks = new ArrayList<>();
+		int start = 0;
+		while (start < content.length()) {
+			int end = Math.min(content.length(), start + REQUEST_CHUNK_LENGTH);
+			if (end < content.length() && Character.isHighSurrogate(content.charAt(end - 1))) {
+				// a surrogate pair is not split, a chunk has to be valid in every character set
+				end--;
+			}
+			chunks.add(new Object[] { jobId, Integer.valueOf(chunks.size()), content.substring(start, end) });
+			start = end;
+		}
+		this.jdbc.batchUpdate("INSERT INTO " + REQUEST_TABLE + " (job_id, chunk_index, content) VALUES (?, ?, ?)", chunks,
+				new int[] { Types.VARCHAR, Types.INTEGER, Types.VARCHAR });
+	}
+
+	/**
+	 * Takes over the lease of an interrupted job. Only one node can claim a job, the others get false.
+	 */
+	public boolean claim(final String jobId) {
+		if (!isEnabled()) {
+			return false;
+		}
+
+		final long now = System.currentTimeMillis();
+		return this.jdbc.update("UPDATE " + JOB_TABLE + " SET lease_owner = ?, lease_until = ?, status = ? WHERE id = ? AND " + UNFINISHED
+				+ " AND (lease_until IS NULL OR lease_until < ?)",
+				this.nodeId, Long.valueOf(now + LEASE_MILLIS), BranchJobStatus.QUEUED.name(), jobId, Long.valueOf(now)) == 1;
+	}
+
+	/**
+	 * Renews the lease of a job running on this node, to be called right before a part is handed over to the background creator.
+	 * @return false if the store is enabled and this node does not hold the lease any more, e.g. because the lease expired while
+	 * it could not be renewed and another node claimed the job, or if the lease could not be checked
+	 */
+	public boolean renewLease(final String jobId) {
+		if (!isEnabled()) {
+			return true;
+		}
+
+		try {
+			return this.jdbc.update("UPDATE " + JOB_TABLE + " SET lease_until = ? WHERE id = ? AND lease_owner = ?",
+					Long.valueOf(System.currentTimeMillis() + LEASE_MILLIS), jobId, this.nodeId) == 1;
+		} catch (final DataAccessException e) {
+			logger.warn("Could not renew the lease of branch job " + jobId, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Gives up the lease of a claimed job that could not be resumed, so it can be claimed again.
+	 */
+	public void release(final String jobId) {
+		if (isEnabled()) {
+			this.jdbc.update("UPDATE " + JOB_TABLE + " SET lease_owner = NULL, lease_until = NULL WHERE id = ? AND lease_owner = ?", jobId, this.nodeId);
+		}
+	}
+
+	/**
+	 * Fails a claimed job that cannot be resumed, e.g. because one of its source trackers has been deleted since.
+	 */
+	public void fail(final String jobId, final String message) {
+		if (isEnabled()) {
+			this.jdbc.update("UPDATE " + JOB_TABLE + " SET status = ?, finished_at = ?, message = ?, lease_owner = NULL, lease_until = NULL WHERE id = ? AND lease_owner = ?",
+					BranchJobStatus.FAILED.name(), Long.valueOf(System.currentTimeMillis()), truncate(message), jobId, this.nodeId);
+		}
+	}
+
+	/**
+	 * Completes a claimed job whose branches had all been created before it was interrupted.
+	 */
+	public void complete(final String jobId) {
+		if (isEnabled()) {
+			this.jdbc.update("UPDATE " + JOB_TABLE + " SET status = ?, finished_at = ?, lease_owner = NULL, lease_until = NULL WHERE id = ? AND lease_owner = ?",
+					BranchJobStatus.COMPLETED.name(), Long.valueOf(System.currentTimeMillis()), jobId, this.nodeId);
+		}
+	}
+
+	@Override
+	public void jobStarted(final BranchJob job) {
+		if (isEnabled()) {
+			this.jdbc.update("UPDATE " + JOB_TABLE + " SET status = ? WHERE id = ? AND lease_owner = ?",
+					BranchJobStatus.RUNNING.name(), job.getId(), this.nodeId);
+		}
+	}
+
+	/**
+	 * Records the new branch as checkpoint, so the branch is skipped when the job is resumed.
+	 */
+	@Override
+	public void branchCreated(final BranchJob job, final BranchJob.Unit unit) {
+		recordBranch(job.getId(), unit.getSource().getId(), unit.getName(), unit.getBranch().getId());
+	}
+
+	/**
+	 * Records the checkpoint of a branch of the job, if the branch has none yet.
+	 */
+	public void recordBranch(final String jobId, final Integer sourceId, final String name, final Integer branchId) {
+		if (isEnabled()) {
+			this.transactions.execute(status -> {
+				if (this.jdbc.update("UPDATE " + UNIT_TABLE + " SET branch_id = ? WHERE job_id = ? AND source_id = ? AND name = ? AND branch_id IS NULL",
+						branchId, jobId, sourceId, name) == 1) {
+					this.jdbc.update("INSERT INTO " + KNOWN_BRANCH_TABLE + " (job_id, branch_id) VALUES (?, ?)", jobId, branchId);
+				}
+				return null;
+			});
+		}
+	}
+
+	/**
+	 * Records the final state of the job, the lease is kept until the job has settled.
+	 */
+	@Override
+	public void jobFinished(final BranchJob job) {
+		if (isEnabled()) {
+			this.jdbc.update("UPDATE " + JOB_TABLE + " SET status = ?, finished_at = ?, message = ? WHERE id = ? AND lease_owner = ?",
+					job.getStatus().name(), Long.valueOf(job.getFinishedAt().getTime()), truncate(job.getMessage()), job.getId(), this.nodeId);
+		}
+	}
+
+	@Override
+	public void jobSettled(final BranchJob job) {
+		if (isEnabled()) {
+			this.jdbc.update("UPDATE " + JOB_TABLE + " SET lease_owner = NULL, lease_until = NULL WHERE id = ? AND lease_owner = ?",
+					job.getId(), this.nodeId);
+		}
+	}
+
+	/**
+	 * Renews the leases of the jobs of this node that have not settled and deletes the old settled jobs.
+	 */
+	void maintain() {
+		try {
+			final long now = System.currentTimeMillis();
+			this.jdbc.update("UPDATE " + JOB_TABLE + " SET lease_until = ? WHERE lease_owner = ?",
+					Long.valueOf(now + LEASE_MILLIS), this.nodeId);
+
+			final Long before = Long.valueOf(now - RETENTION_MILLIS);
+			this.transactions.execute(status -> {
+				this.jdbc.update("DELETE FROM " + UNIT_TABLE + " WHERE job_id IN (SELECT id FROM " + JOB_TABLE + " WHERE " + SETTLED_BEFORE + ")", before, before);
+				this.jdbc.update("DELETE FROM " + KNOWN_BRANCH_TABLE + " WHERE job_id IN (SELECT id FROM " + JOB_TABLE + " WHERE " + SETTLED_BEFORE + ")", before, before);
+				this.jdbc.update("DELETE FROM " + REQUEST_TABLE + " WHERE job_id IN (SELECT id FROM " + JOB_TABLE + " WHERE " + SETTLED_BEFORE + ")", before, before);
+				this.jdbc.update("DELETE FROM " + JOB_TABLE + " WHERE " + SETTLED_BEFORE, before, before);
+				return null;
+			});
+		} catch (final RuntimeException e) {
+			logger.warn("Could not renew the leases of the branch jobs", e);
+		}
+	}
+
+	private static boolean tableExists(final JdbcTemplate template, final String table) {
+		final Boolean result = template.execute((Connection connection) -> {
+			final DatabaseMetaData metaData = connection.getMetaData();
+			// databases store unquoted names either in upper or in lower case
+			for (final String name : new String[] { table.toUpperCase(Locale.ENGLISH), table.toLowerCase(Locale.ENGLISH) }) {
+				try (ResultSet tables = metaData.getTables(connection.getCatalog(), null, name, new String[] { "TABLE" })) {
+					if (tables.next()) {
+						return Boolean.TRUE;
+					}
+				}
+			}
+			return Boolean.FALSE;
+		});
+		return Boolean.TRUE.equals(result);
+	}
+
+	private static String truncate(final String message) {
+		return message != null && message.length() > MESSAGE_LENGTH ? message.substring(0, MESSAGE_LENGTH) : message;
+	}
+
+	private static Long getLong(final ResultSet row, final String column) throws SQLException {
+		final long value = row.getLong(column);
+		return row.wasNull() ? null : Long.valueOf(value);
+	}
+
+	private static Integer getInteger(final ResultSet row, final String column) throws SQLException {
+		final int value = row.getInt(column);
+		return row.wasNull() ? null : Integer.valueOf(value);
+	}
+}
@@ -0,0 +1,600 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching.job;
+
+import java.lang.reflect.Proxy;
+import java.security.Principal;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Copy of a request for the background creator, which gets the request when a part of a branch job is handed over
+ * to it, possibly on a worker thread after the request has been completed and recycled by the container.
+ * Every read method of the request is answered from plain values copied when the job is submitted, the original
+ * request is never called again. Only reading the body, asynchronous processing, authentication and creating
+ * a session fail with an {@link IllegalStateException}, as they do on a completed request.
+ * Credentials sent with the request (authorization headers, cookies, the requested session id) are not copied,
+ * the job runs as the user resolved when it was submitted. Attributes are only copied if their name is allowed
+ * and their value is a string, so no object of the container or of Spring bound to the request is kept.
+ * The existing session is kept, but no session is created for the job.
+ * The copied values can be taken as a snapshot of plain strings, numbers and collections, which is stored with the job,
+ * so that another node can rebuild the request when it resumes the job. A rebuilt request has no session.
+ */
+public class DetachedHttpServletRequest extends HttpServletRequestWrapper {
+	private static final Set<String> CREDENTIAL_HEADERS = new HashSet<>(Arrays.asList("authorization", "proxy-authorization", "cookie"));
+
+	private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+	private final Map<String, List<String>> headers = new LinkedHashMap<>();
+	private final Map<String, String[]> parameters = new LinkedHashMap<>();
+	private final List<Locale> locales;
+	private final HttpSession session;
+	private final ServletContext servletContext;
+	private final Principal userPrincipal;
+	private final String authType;
+	private final String remoteUser;
+	private final String remoteAddr;
+	private final String remoteHost;
+	private final int remotePort;
+	private final String localName;
+	private final String localAddr;
+	private final int localPort;
+	private final String method;
+	private final String protocol;
+	private final String scheme;
+	private final String serverName;
+	private final int serverPort;
+	private final boolean secure;
+	private final String contextPath;
+	private final String servletPath;
+	private final String pathInfo;
+	private final String pathTranslated;
+	private final String queryString;
+	private final String requestURI;
+	private final String requestURL;
+	private String characterEncoding;
+
+	/**
+	 * @param attributeNames names of the request attributes to copy
+	 */
+	public DetachedHttpServletRequest(final HttpServletRequest request, final Collection<String> attributeNames) {
+		super(unavailable());
+		for (final String name : attributeNames) {
+			final Object value = request.getAttribute(name);
+			if (value instanceof String) {
+				this.attributes.put(name, value);
+			}
+		}
+		for (final String name : Collections.list(request.getHeaderNames())) {
+			final String key = name.toLowerCase(Locale.ENGLISH);
+			if (!CREDENTIAL_HEADERS.contains(key)) {
+				this.headers.put(key, Collections.list(request.getHeaders(name)));
+			}
+		}
+		request.getParameterMap().forEach((name, values) -> this.parameters.put(name, values.clone()));
+		this.locales = Collections.list(request.getLocales());
+		this.session = request.getSession(false);
+		this.servletContext = request.getServletContext();
+		final Principal principal = request.getUserPrincipal();
+		this.userPrincipal = principal != null ? new NamedPrincipal(principal.getName()) : null;
+		this.authType = request.getAuthType();
+		this.remoteUser = request.getRemoteUser();
+		this.remoteAddr = request.getRemoteAddr();
+		this.remoteHost = request.getRemoteHost();
+		this.remotePort = request.getRemotePort();
+		this.localName = request.getLocalName();
+		this.localAddr = request.getLocalAddr();
+		this.localPort = request.getLocalPort();
+		this.method = request.getMethod();
+		this.protocol = request.getProtocol();
+		this.scheme = request.getScheme();
+		this.serverName = request.getServerName();
+		this.serverPort = request.getServerPort();
+		this.secure = request.isSecure();
+		this.contextPath = request.getContextPath();
+		this.servletPath = request.getServletPath();
+		this.pathInfo = request.getPathInfo();
+		this.pathTranslated = request.getPathTranslated();
+		this.queryString = request.getQueryString();
+		this.requestURI = request.getRequestURI();
+		this.requestURL = request.getRequestURL().toString();
+		this.characterEncoding = request.getCharacterEncoding();
+	}
+
+	/**
+	 * Rebuilds the request from a snapshot taken by {@link #toSnapshot()}, e.g. on another node.
+	 * @param servletContext the context of the node running the job
+	 */
+	public DetachedHttpServletRequest(final Map<String, ?> snapshot, final ServletContext servletContext) {
+		super(unavailable());
+		getMap(snapshot, "attributes").forEach((name, value) -> this.attributes.put(name, String.valueOf(value)));
+		getMap(snapshot, "headers").forEach((name, values) -> this.headers.put(name, toStrings(values)));
+		getMap(snapshot, "parameters").forEach((name, values) -> this.parameters.put(name, toStrings(values).toArray(new String[0])));
+		this.locales = toStrings(snapshot.get("locales")).stream().map(Locale::forLanguageTag).collect(Collectors.toList());
+		this.session = null;
+		this.servletContext = servletContext;
+		final String principal = getString(snapshot, "userPrincipal");
+		this.userPrincipal = principal != null ? new NamedPrincipal(principal) : null;
+		this.authType = getString(snapshot, "authType");
+		this.remoteUser = getString(snapshot, "remoteUser");
+		this.remoteAddr = getString(snapshot, "remoteAddr");
+		this.remoteHost = getString(snapshot, "remoteHost");
+		this.remotePort = getInt(snapshot, "remotePort");
+		this.localName = getString(snapshot, "localName");
+		this.localAddr = getString(snapshot, "localAddr");
+		this.localPort = getInt(snapshot, "localPort");
+		this.method = getString(snapshot, "method");
+		this.protocol = getString(snapshot, "protocol");
+		this.scheme = getString(snapshot, "scheme");
+		this.serverName = getString(snapshot, "serverName");
+		this.serverPort = getInt(snapshot, "serverPort");
+		this.secure = Boolean.TRUE.equals(snapshot.get("secure"));
+		this.contextPath = getString(snapshot, "contextPath");
+		this.servletPath = getString(snapshot, "servletPath");
+		this.pathInfo = getString(snapshot, "pathInfo");
+		this.pathTranslated = getString(snapshot, "pathTranslated");
+		this.queryString = getString(snapshot, "queryString");
+		this.requestURI = getString(snapshot, "requestURI");
+		this.requestURL = getString(snapshot, "requestURL");
+		this.characterEncoding = getString(snapshot, "characterEncoding");
+	}
+
+	/**
+	 * @return the copied values of the request without its session and servlet context, which only exist on this node
+	 */
+	public Map<String, Object> toSnapshot() {
+		final Map<String, Object> result = new LinkedHashMap<>();
+		result.put("attributes", new LinkedHashMap<>(this.attributes));
+		result.put("headers", new LinkedHashMap<>(this.headers));
+		final Map<String, List<String>> parameterValues = new LinkedHashMap<>();
+		this.parameters.forEach((name, values) -> parameterValues.put(name, Arrays.asList(values)));
+		result.put("parameters", parameterValues);
+		result.put("locales", this.locales.stream().map(Locale::toLanguageTag).collect(Collectors.toList()));
+		result.put("userPrincipal", this.userPrincipal != null ? this.userPrincipal.getName() : null);
+		result.put("authType", this.authType);
+		result.put("remoteUser", this.remoteUser);
+		result.put("remoteAddr", this.remoteAddr);
+		result.put("remoteHost", this.remoteHost);
+		result.put("remotePort", Integer.valueOf(this.remotePort));
+		result.put("localName", this.localName);
+		result.put("localAddr", this.localAddr);
+		result.put("localPort", Integer.valueOf(this.localPort));
+		result.put("method", this.method);
+		result.put("protocol", this.protocol);
+		result.put("scheme", this.scheme);
+		result.put("serverName", this.serverName);
+		result.put("serverPort", Integer.valueOf(this.serverPort));
+		result.put("secure", Boolean.valueOf(this.secure));
+		result.put("contextPath", this.contextPath);
+		result.put("servletPath", this.servletPath);
+		result.put("pathInfo", this.pathInfo);
+		result.put("pathTranslated", this.pathTranslated);
+		result.put("queryString", this.queryString);
+		result.put("requestURI", this.requestURI);
+		result.put("requestURL", this.requestURL);
+		result.put("characterEncoding", this.characterEncoding);
+		return result;
+	}
+
+	private static Map<String, ?> getMap(final Map<String, ?> snapshot, final String key) {
+		final Object value = snapshot.get(key);
+		return value instanceof Map ? ((Map<?, ?>) value).entrySet().stream()
+				.collect(Collectors.toMap(entry -> String.valueOf(entry.getKey()), Map.Entry::getValue, (first, second) -> first, LinkedHashMap::new))
+				: Collections.emptyMap();
+	}
+
+	private static List<String> toStrings(final Object values) {
+		return values instanceof Collection ? ((Collection<?>) values).stream().map(String::valueOf).collect(Collectors.toList()) : new ArrayList<>();
+	}
+
+	private static String getString(final Map<String, ?> snapshot, final String key) {
+		final Object value = snapshot.get(key);
+		return value != null ? value.toString() : null;
+	}
+
+	private static int getInt(final Map<String, ?> snapshot, final String key) {
+		final Object value = snapshot.get(key);
+		return value instanceof Number ? ((Number) value).intValue() : -1;
+	}
+
+	/**
+	 * @return a request failing on every call, in place of the original request, for the methods not answered by the copy
+	 */
+	private static HttpServletRequest unavailable() {
+		return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(), new Class<?>[] { HttpServletRequest.class },
+				(proxy, method, args) -> {
+					if (method.getDeclaringClass() == Object.class) {
+						switch (method.getName()) {
+							case "equals":
+								return Boolean.valueOf(proxy == args[0]);
+							case "hashCode":
+								return Integer.valueOf(System.identityHashCode(proxy));
+							default:
+								return DetachedHttpServletRequest.class.getSimpleName();
+						}
+					}
+					throw new IllegalStateException(method.getName() + " is not available, the request has been completed");
+				});
+	}
+
+	private static final class NamedPrincipal implements Principal {
+		private final String name;
+
+		NamedPrincipal(final String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return this.name;
+		}
+
+		@Override
+		public String toString() {
+			return this.name;
+		}
+	}
+
+	@Override
+	public Object getAttribute(final String name) {
+		return this.attributes.get(name);
+	}
+
+	@Override
+	public Enumeration<String> getAttributeNames() {
+		return Collections.enumeration(new ArrayList<>(this.attributes.keySet()));
+	}
+
+	@Override
+	public void setAttribute(final String name, final Object value) {
+		if (value == null) {
+			this.attributes.remove(name);
+		} else {
+			this.attributes.put(name, value);
+		}
+	}
+
+	@Override
+	public void removeAttribute(final String name) {
+		this.attributes.remove(name);
+	}
+
+	@Override
+	public String getHeader(final String name) {
+		final List<String> values = this.headers.get(name.toLowerCase(Locale.ENGLISH));
+		return values == null || values.isEmpty() ? null : values.get(0);
+	}
+
+	@Override
+	public Enumeration<String> getHeaders(final String name) {
+		return Collections.enumeration(this.headers.getOrDefault(name.toLowerCase(Locale.ENGLISH), Collections.emptyList()));
+	}
+
+	@Override
+	public Enumeration<String> getHeaderNames() {
+		return Collections.enumeration(this.headers.keySet());
+	}
+
+	@Override
+	public int getIntHeader(final String name) {
+		final String value = getHeader(name);
+		return value == null ? -1 : Integer.parseInt(value);
+	}
+
+	@Override
+	public long getDateHeader(final String name) {
+		final String value = getHeader(name);
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		} catch (final DateTimeParseException e) {
+			throw new IllegalArgumentException("Header " + name + " is not a date: " + value, e);
+		}
+	}
+
+	@Override
+	public Cookie[] getCookies() {
+		return null;
+	}
+
+	@Override
+	public String getParameter(final String name) {
+		final String[] values = this.parameters.get(name);
+		return values == null || values.length == 0 ? null : values[0];
+	}
+
+	@Override
+	public Map<String, String[]> getParameterMap() {
+		return Collections.unmodifiableMap(this.parameters);
+	}
+
+	@Override
+	public Enumeration<String> getParameterNames() {
+		return Collections.enumeration(this.parameters.keySet());
+	}
+
+	@Override
+	public String[] getParameterValues(final String name) {
+		final String[] values = this.parameters.get(name);
+		return values != null ? values.clone() : null;
+	}
+
+	@Override
+	public Locale getLocale() {
+		return this.locales.isEmpty() ? Locale.getDefault() : this.locales.get(0);
+	}
+
+	@Override
+	public Enumeration<Locale> getLocales() {
+		return Collections.enumeration(this.locales.isEmpty() ? Collections.singletonList(Locale.getDefault()) : this.locales);
+	}
+
+	/**
+	 * @return the session of the request, if it had one
+	 * @throws IllegalStateException if the request had no session, a session cannot be created for a completed request
+	 */
+	@Override
+	public HttpSession getSession() {
+		return getSession(true);
+	}
+
+	@Override
+	public HttpSession getSession(final boolean create) {
+		if (this.session == null && create) {
+			throw new IllegalStateException("A session cannot be created, the request has been completed");
+		}
+		return this.session;
+	}
+
+	@Override
+	public String getRequestedSessionId() {
+		return null;
+	}
+
+	@Override
+	public boolean isRequestedSessionIdValid() {
+		return false;
+	}
+
+	@Override
+	public boolean isRequestedSessionIdFromCookie() {
+		return false;
+	}
+
+	@Override
+	public boolean isRequestedSessionIdFromURL() {
+		return false;
+	}
+
+	@Override
+	@Deprecated
+	public boolean isRequestedSessionIdFromUrl() {
+		return false;
+	}
+
+	@Override
+	public ServletContext getServletContext() {
+		return this.servletContext;
+	}
+
+	@Override
+	public RequestDispatcher getRequestDispatcher(final String path) {
+		return null;
+	}
+
+	@Override
+	@Deprecated
+	public String getRealPath(final String path) {
+		return this.servletContext != null ? this.servletContext.getRealPath(path) : null;
+	}
+
+	@Override
+	public DispatcherType getDispatcherType() {
+		return DispatcherType.REQUEST;
+	}
+
+	@Override
+	public boolean isAsyncStarted() {
+		return false;
+	}
+
+	@Override
+	public boolean isAsyncSupported() {
+		return false;
+	}
+
+	@Override
+	public Principal getUserPrincipal() {
+		return this.userPrincipal;
+	}
+
+	@Override
+	public boolean isUserInRole(final String role) {
+		return false;
+	}
+
+	@Override
+	public String getAuthType() {
+		return this.authType;
+	}
+
+	@Override
+	public String getRemoteUser() {
+		return this.remoteUser;
+	}
+
+	@Override
+	public String getRemoteAddr() {
+		return this.remoteAddr;
+	}
+
+	@Override
+	public String getRemoteHost() {
+		return this.remoteHost;
+	}
+
+	@Override
+	public int getRemotePort() {
+		return this.remotePort;
+	}
+
+	@Override
+	public String getLocalName() {
+		return this.localName;
+	}
+
+	@Override
+	public String getLocalAddr() {
+		return this.localAddr;
+	}
+
+	@Override
+	public int getLocalPort() {
+		return this.localPort;
+	}
+
+	@Override
+	public String getMethod() {
+		return this.method;
+	}
+
+	@Override
+	public String getProtocol() {
+		return this.protocol;
+	}
+
+	@Override
+	public String getScheme() {
+		return this.scheme;
+	}
+
+	@Override
+	public String getServerName() {
+		return this.serverName;
+	}
+
+	@Override
+	public int getServerPort() {
+		return this.serverPort;
+	}
+
+	@Override
+	public boolean isSecure() {
+		return this.secure;
+	}
+
+	@Override
+	public String getContextPath() {
+		return this.contextPath;
+	}
+
+	@Override
+	public String getServletPath() {
+		return this.servletPath;
+	}
+
+	@Override
+	public String getPathInfo() {
+		return this.pathInfo;
+	}
+
+	@Override
+	public String getPathTranslated() {
+		return this.pathTranslated;
+	}
+
+	@Override
+	public String getQueryString() {
+		return this.queryString;
+	}
+
+	@Override
+	public String getRequestURI() {
+		return this.requestURI;
+	}
+
+	@Override
+	public StringBuffer getRequestURL() {
+		return new StringBuffer(this.requestURL);
+	}
+
+	@Override
+	public String getCharacterEncoding() {
+		return this.characterEncoding;
+	}
+
+	@Override
+	public void setCharacterEncoding(final String encoding) {
+		this.characterEncoding = encoding;
+	}
+
+	/**
+	 * The body has been read by the controller, it is not available to the background creator.
+	 */
+	@Override
+	public int getContentLength() {
+		return -1;
+	}
+
+	@Override
+	public long getContentLengthLong() {
+		return -1;
+	}
+
+	@Override
+	public String getContentType() {
+		return null;
+	}
+
+}
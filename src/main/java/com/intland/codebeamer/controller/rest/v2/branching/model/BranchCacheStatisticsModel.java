@@ -0,0 +1,103 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching.model;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(name = "BranchCacheStatistics")
+public class BranchCacheStatisticsModel {
+
+	@Schema(description = "Number of branch lists served from the cache")
+	private long hitCount;
+
+	@Schema(description = "Number of branch lists loaded from the database")
+	private long missCount;
+
+	@Schema(description = "Number of branch lists evicted because of size or age")
+	private long evictionCount;
+
+	@Schema(description = "Number of branch lists currently cached")
+	private long size;
+
+	public long getHitCount() {
+		return this.hitCount;
+	}
+
+	public void setHitCount(final long hitCount) {
+		this.hitCount = hitCount;
+	}
+
+	public long getMissCount() {
+		return this.missCount;
+	}
+
+	public void setMissCount(final long missCount) {
+		this.missCount = missCount;
+	}
+
+	public long getEvictionCount() {
+		return this.evictionCount;
+	}
+
+	public void setEvictionCount(final long evictionCount) {
+		this.evictionCount = evictionCount;
+	}
+
+	public long getSize() {
+		return this.size;
+	}
+
+	public void setSize(final long size) {
+		this.size = size;
+	}
+
+	@Override
+	public int hashCode() {
+		return HashCodeBuilder.reflectionHashCode(this);
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (obj instanceof BranchCacheStatisticsModel) {
+			return EqualsBuilder.reflectionEquals(this, obj);
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return ToStringBuilder.reflectionToString(this);
+	}
+}
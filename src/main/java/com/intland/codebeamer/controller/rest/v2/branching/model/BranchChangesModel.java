@@ -0,0 +1,108 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import com.intland.codebeamer.controller.rest.v2.model.reference.TrackerReferenceModel;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(name = "BranchChanges")
+public class BranchChangesModel {
+
+	@Schema(description = "True if the cursor is missing or has expired: changed contains every branch and the client has to replace its copy")
+	private boolean full;
+
+	@Schema(description = "Branches created or modified since the cursor")
+	private List<TrackerReferenceModel> changed = new ArrayList<>();
+
+	@Schema(description = "Ids of the branches deleted since the cursor")
+	private List<Integer> deleted = new ArrayList<>();
+
+	@Schema(description = "Cursor of the current state, to be sent with the next request")
+	private String cursor;
+
+	public boolean isFull() {
+		return this.full;
+	}
+
+	public void setFull(final boolean full) {
+		this.full = full;
+	}
+
+	public List<TrackerReferenceModel> getChanged() {
+		return this.changed;
+	}
+
+	public void setChanged(final List<TrackerReferenceModel> changed) {
+		this.changed = changed;
+	}
+
+	public List<Integer> getDeleted() {
+		return this.deleted;
+	}
+
+	public void setDeleted(final List<Integer> deleted) {
+		this.deleted = deleted;
+	}
+
+	public String getCursor() {
+		return this.cursor;
+	}
+
+	public void setCursor(final String cursor) {
+		this.cursor = cursor;
+	}
+
+	@Override
+	public int hashCode() {
+		return HashCodeBuilder.reflectionHashCode(this);
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (obj instanceof BranchChangesModel) {
+			return EqualsBuilder.reflectionEquals(this, obj);
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return ToStringBuilder.reflectionToString(this);
+	}
+}
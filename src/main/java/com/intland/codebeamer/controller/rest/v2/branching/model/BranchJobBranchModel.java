@@ -0,0 +1,106 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching.model;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import com.intland.codebeamer.controller.rest.v2.model.reference.TrackerReferenceModel;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(name = "BranchJobBranch")
+public class BranchJobBranchModel {
+
+	@Schema(description = "Tracker the branch is created from")
+	private TrackerReferenceModel source;
+
+	@Schema(description = "Name of the new branch", example = "1.2")
+	private String name;
+
+	@Schema(description = "Whether the branch has already been created")
+	private boolean created;
+
+	@Schema(description = "The new branch, once it has been created")
+	private TrackerReferenceModel branch;
+
+	public TrackerReferenceModel getSource() {
+		return this.source;
+	}
+
+	public void setSource(final TrackerReferenceModel source) {
+		this.source = source;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public void setName(final String name) {
+		this.name = name;
+	}
+
+	public boolean isCreated() {
+		return this.created;
+	}
+
+	public void setCreated(final boolean created) {
+		this.created = created;
+	}
+
+	public TrackerReferenceModel getBranch() {
+		return this.branch;
+	}
+
+	public void setBranch(final TrackerReferenceModel branch) {
+		this.branch = branch;
+	}
+
+	@Override
+	public int hashCode() {
+		return HashCodeBuilder.reflectionHashCode(this);
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (obj instanceof BranchJobBranchModel) {
+			return EqualsBuilder.reflectionEquals(this, obj);
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return ToStringBuilder.reflectionToString(this);
+	}
+
+}
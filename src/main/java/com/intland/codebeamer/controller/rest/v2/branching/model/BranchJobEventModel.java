@@ -0,0 +1,127 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching.model;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobStatus;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(name = "BranchJobEvent")
+public class BranchJobEventModel {
+
+	@Schema(description = "Id of the job")
+	private String jobId;
+
+	@Schema(description = "Status of the job after the event")
+	private BranchJobStatus status;
+
+	@Schema(description = "Number of branches created so far")
+	private int createdCount;
+
+	@Schema(description = "Number of branches of the job")
+	private int totalCount;
+
+	@Schema(description = "Reason of failure or cancellation")
+	private String message;
+
+	@Schema(description = "The created branch, only set for branch-created events")
+	private BranchJobBranchModel branch;
+
+	public String getJobId() {
+		return this.jobId;
+	}
+
+	public void setJobId(final String jobId) {
+		this.jobId = jobId;
+	}
+
+	public BranchJobStatus getStatus() {
+		return this.status;
+	}
+
+	public void setStatus(final BranchJobStatus status) {
+		this.status = status;
+	}
+
+	public int getCreatedCount() {
+		return this.createdCount;
+	}
+
+	public void setCreatedCount(final int createdCount) {
+		this.createdCount = createdCount;
+	}
+
+	public int getTotalCount() {
+		return this.totalCount;
+	}
+
+	public void setTotalCount(final int totalCount) {
+		this.totalCount = totalCount;
+	}
+
+	public String getMessage() {
+		return this.message;
+	}
+
+	public void setMessage(final String message) {
+		this.message = message;
+	}
+
+	public BranchJobBranchModel getBranch() {
+		return this.branch;
+	}
+
+	public void setBranch(final BranchJobBranchModel branch) {
+		this.branch = branch;
+	}
+
+	@Override
+	public int hashCode() {
+		return HashCodeBuilder.reflectionHashCode(this);
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (obj instanceof BranchJobEventModel) {
+			return EqualsBuilder.reflectionEquals(this, obj);
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return ToStringBuilder.reflectionToString(this);
+	}
+}
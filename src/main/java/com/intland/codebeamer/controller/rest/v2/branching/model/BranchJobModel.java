@@ -0,0 +1,153 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching.model;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobStatus;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(name = "BranchJob")
+public class BranchJobModel {
+
+	@Schema(description = "Id of the job", example = "0b6f3a52-3f1c-4e43-9a4b-2f0d2c6c1d7e")
+	private String id;
+
+	@Schema(description = "Status of the job")
+	private BranchJobStatus status;
+
+	@Schema(description = "Time the job was submitted")
+	private Date submittedAt;
+
+	@Schema(description = "Time the job has finished")
+	private Date finishedAt;
+
+	@Schema(description = "Number of branches already created")
+	private int createdCount;
+
+	@Schema(description = "Number of branches to create")
+	private int totalCount;
+
+	@Schema(description = "Reason of the failure")
+	private String message;
+
+	@Schema(description = "Progress of the individual branches")
+	private List<BranchJobBranchModel> branches = new ArrayList<>(0);
+
+	public String getId() {
+		return this.id;
+	}
+
+	public void setId(final String id) {
+		this.id = id;
+	}
+
+	public BranchJobStatus getStatus() {
+		return this.status;
+	}
+
+	public void setStatus(final BranchJobStatus status) {
+		this.status = status;
+	}
+
+	public Date getSubmittedAt() {
+		return this.submittedAt;
+	}
+
+	public void setSubmittedAt(final Date submittedAt) {
+		this.submittedAt = submittedAt;
+	}
+
+	public Date getFinishedAt() {
+		return this.finishedAt;
+	}
+
+	public void setFinishedAt(final Date finishedAt) {
+		this.finishedAt = finishedAt;
+	}
+
+	public int getCreatedCount() {
+		return this.createdCount;
+	}
+
+	public void setCreatedCount(final int createdCount) {
+		this.createdCount = createdCount;
+	}
+
+	public int getTotalCount() {
+		return this.totalCount;
+	}
+
+	public void setTotalCount(final int totalCount) {
+		this.totalCount = totalCount;
+	}
+
+	public String getMessage() {
+		return this.message;
+	}
+
+	public void setMessage(final String message) {
+		this.message = message;
+	}
+
+	public List<BranchJobBranchModel> getBranches() {
+		return this.branches;
+	}
+
+	public void setBranches(final List<BranchJobBranchModel> branches) {
+		this.branches = branches;
+	}
+
+	@Override
+	public int hashCode() {
+		return HashCodeBuilder.reflectionHashCode(this);
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (obj instanceof BranchJobModel) {
+			return EqualsBuilder.reflectionEquals(this, obj);
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return ToStringBuilder.reflectionToString(this);
+	}
+}
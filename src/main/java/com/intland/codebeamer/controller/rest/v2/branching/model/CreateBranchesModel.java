@@ -36,15 +36,21 @@ import java.util.List;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import com.intland.codebeamer.controller.rest.v2.branching.job.BranchJobPriority;
+
 import io.swagger.v3.oas.annotations.media.Schema;
 
 @Schema(name = "CreateBranches")
 public class CreateBranchesModel {
 
 
-	@Schema(description = "List of desired branches", required = true)
+	@Schema(description = "List of desired branches, a source can be branched several times with different names", required = true)
 	private List<CreateBranchModel> branches = new ArrayList<>(0);
 
+	@Schema(description = "Priority of the job among the waiting branch jobs, HIGH is reserved to the admins of the source projects", defaultValue = "NORMAL")
+	private BranchJobPriority priority = BranchJobPriority.NORMAL;
+
 	public List<CreateBranchModel> getBranches() {
 		return this.branches;
 	}
@@ -53,6 +59,14 @@ public class CreateBranchesModel {
 		this.branches = branches;
 	}
 
+	public BranchJobPriority getPriority() {
+		return this.priority;
+	}
+
+	public void setPriority(final BranchJobPriority priority) {
+		this.priority = priority;
+	}
+
 	@Override
 	public int hashCode() {
 		return HashCodeBuilder.reflectionHashCode(this);
@@ -0,0 +1,43 @@
+-- Tables of the branch job store, run once on the codeBeamer database before enabling the store
+-- with the branching.jobStore.enabled property. Timestamps are epoch milliseconds.
+
+CREATE TABLE branching_job (
+	id VARCHAR(36) NOT NULL PRIMARY KEY,
+	user_id INTEGER NOT NULL,
+	idempotency_key VARCHAR(96),
+	status VARCHAR(16) NOT NULL,
+	priority VARCHAR(16) NOT NULL,
+	submitted_at NUMERIC(19) NOT NULL,
+	finished_at NUMERIC(19),
+	message VARCHAR(4000),
+	lease_owner VARCHAR(64),
+	lease_until NUMERIC(19)
+);
+
+CREATE TABLE branching_job_unit (
+	job_id VARCHAR(36) NOT NULL,
+	part_index INTEGER NOT NULL,
+	unit_index INTEGER NOT NULL,
+	source_id INTEGER NOT NULL,
+	baseline_id INTEGER,
+	name VARCHAR(255),
+	key_name VARCHAR(255),
+	color VARCHAR(16),
+	description VARCHAR(4000),
+	permission_inheritance VARCHAR(64),
+	branch_id INTEGER,
+	PRIMARY KEY (job_id, part_index, unit_index)
+);
+
+CREATE TABLE branching_job_known_branch (
+	job_id VARCHAR(36) NOT NULL,
+	branch_id INTEGER NOT NULL,
+	PRIMARY KEY (job_id, branch_id)
+);
+
+CREATE TABLE branching_job_request (
+	job_id VARCHAR(36) NOT NULL,
+	chunk_index INTEGER NOT NULL,
+	content VARCHAR(4000) NOT NULL,
+	PRIMARY KEY (job_id, chunk_index)
+);
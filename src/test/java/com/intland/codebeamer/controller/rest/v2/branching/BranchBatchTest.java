@@ -0,0 +1,160 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.intland.codebeamer.controller.rest.v2.branching.model.CreateBranchModel;
+import com.intland.codebeamer.controller.rest.v2.branching.model.CreateBranchesModel;
+import com.intland.codebeamer.controller.rest.v2.exception.BadRequestException;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceForbiddenException;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceNotFoundException;
+import com.intland.codebeamer.controller.rest.v2.model.reference.TrackerReferenceModel;
+import com.intland.codebeamer.persistence.dto.ProjectDto;
+import com.intland.codebeamer.persistence.dto.TrackerDto;
+import com.intland.codebeamer.persistence.dto.TrackerLayoutLabelDto;
+import com.intland.codebeamer.persistence.dto.UserDto;
+
+/**
+ * Pairs the branches of a tracker with the branches of the trackers referring to it by name,
+ * tracker B refers to tracker A.
+ */
+public class BranchBatchTest {
+	private final UserDto user = new UserDto();
+	private final InMemoryBranchingLookup lookup = new InMemoryBranchingLookup();
+	private TrackerDto target;
+	private TrackerDto referring;
+
+	@Before
+	public void setUp() {
+		final ProjectDto project = new ProjectDto();
+		project.setId(Integer.valueOf(100));
+		this.lookup.addBranchAdminProject(project);
+
+		this.target = addTracker(project, 1, "A");
+		this.referring = addTracker(project, 2, "B");
+
+		final TrackerLayoutLabelDto field = new TrackerLayoutLabelDto();
+		field.setId(Integer.valueOf(10000));
+		field.setTrackerId(this.referring.getId());
+		this.lookup.addReferenceField(this.referring, this.target, field);
+	}
+
+	@Test
+	public void pairsSingleBranchesWhateverTheirNames() throws Exception {
+		final BranchBatch batch = prepare(branch(this.target, "1.2"), branch(this.referring, "Release"));
+
+		assertEquals(Collections.singletonList("Release"), getReferringNames(batch, 0));
+	}
+
+	@Test
+	public void pairsSeveralBranchesByName() throws Exception {
+		final BranchBatch batch = prepare(branch(this.target, "1.2"), branch(this.target, "1.3"),
+				branch(this.referring, "1.3"), branch(this.referring, "1.2"));
+
+		assertEquals(Collections.singletonList("1.2"), getReferringNames(batch, 0));
+		assertEquals(Collections.singletonList("1.3"), getReferringNames(batch, 1));
+	}
+
+	@Test
+	public void rejectsTargetBranchWithoutReferringPartner() throws Exception {
+		assertRejected("Branch 1.3 of tracker 1 needs a branch with the same name of the referring tracker 2",
+				branch(this.target, "1.2"), branch(this.target, "1.3"), branch(this.referring, "1.2"));
+	}
+
+	@Test
+	public void rejectsReferringBranchWithoutTargetPartner() throws Exception {
+		assertRejected("Branch 1.3 of tracker 2 needs a branch with the same name of the referred tracker 1",
+				branch(this.target, "1.2"), branch(this.referring, "1.2"), branch(this.referring, "1.3"));
+	}
+
+	@Test
+	public void rejectsEmptyBatch() throws Exception {
+		assertRejected("No branches in the request body");
+	}
+
+	private void assertRejected(final String message, final CreateBranchModel... branches) throws Exception {
+		try {
+			prepare(branches);
+			fail("The batch should have been rejected");
+		} catch (final BadRequestException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+		}
+	}
+
+	/**
+	 * @return the names of the branches whose references are rewritten to the given branch of tracker A
+	 */
+	private List<String> getReferringNames(final BranchBatch batch, final int index) {
+		final BranchCreationContext context = batch.getBranches().get(this.target).get(index);
+		return context.getReferenceRewrites(batch.getReferences(), batch.getBranches()).values().stream()
+				.flatMap(List::stream)
+				.map(referringContext -> referringContext.getBranchModel().getName())
+				.collect(toList());
+	}
+
+	private BranchBatch prepare(final CreateBranchModel... branches)
+			throws ResourceNotFoundException, BadRequestException, ResourceForbiddenException {
+		final CreateBranchesModel model = new CreateBranchesModel();
+		for (final CreateBranchModel branch : branches) {
+			model.getBranches().add(branch);
+		}
+		return BranchBatch.prepare(this.user, model, this.lookup, new BranchMetrics());
+	}
+
+	private TrackerDto addTracker(final ProjectDto project, final int id, final String name) {
+		final TrackerDto tracker = new TrackerDto();
+		tracker.setId(Integer.valueOf(id));
+		tracker.setName(name);
+		tracker.setProject(project);
+		this.lookup.addTracker(tracker);
+		return tracker;
+	}
+
+	private static CreateBranchModel branch(final TrackerDto source, final String name) {
+		final TrackerReferenceModel reference = new TrackerReferenceModel();
+		reference.setId(source.getId());
+		final CreateBranchModel result = new CreateBranchModel();
+		result.setSource(reference);
+		result.setName(name);
+		result.setColor("#336699");
+		return result;
+	}
+}
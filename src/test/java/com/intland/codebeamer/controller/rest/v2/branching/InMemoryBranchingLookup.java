@@ -0,0 +1,154 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import com.intland.codebeamer.controller.rest.v2.exception.ResourceNotFoundException;
+import com.intland.codebeamer.controller.rest.v2.model.reference.TrackerReferenceModel;
+import com.intland.codebeamer.persistence.dto.BranchDto;
+import com.intland.codebeamer.persistence.dto.ProjectDto;
+import com.intland.codebeamer.persistence.dto.TrackerDto;
+import com.intland.codebeamer.persistence.dto.TrackerLayoutLabelDto;
+import com.intland.codebeamer.persistence.dto.UserDto;
+
+/**
+ * Serves the lookups of the tests and the benchmarks from memory in place of TrackerRestSupport, BranchSupport, EntityCache
+ * and BranchDao, so only the work of the extension is exercised and measured.
+ */
+class InMemoryBranchingLookup implements BranchingLookup {
+	private final Map<Integer, TrackerDto> trackers = new HashMap<>();
+	private final Map<Integer, Multimap<TrackerDto, TrackerLayoutLabelDto>> referringFieldsByTarget = new HashMap<>();
+	private final Set<Integer> branchAdminProjectIds = new HashSet<>();
+	private final Map<Integer, List<BranchDto>> branchesByTracker = new HashMap<>();
+	private final Map<Integer, UserDto> users = new HashMap<>();
+
+	void addTracker(final TrackerDto tracker) {
+		this.trackers.put(tracker.getId(), tracker);
+	}
+
+	void addReferenceField(final TrackerDto referring, final TrackerDto target, final TrackerLayoutLabelDto field) {
+		this.referringFieldsByTarget.computeIfAbsent(target.getId(), id -> ArrayListMultimap.create()).put(referring, field);
+	}
+
+	void addBranchAdminProject(final ProjectDto project) {
+		this.branchAdminProjectIds.add(project.getId());
+	}
+
+	void addUser(final UserDto user) {
+		this.users.put(user.getId(), user);
+	}
+
+	void addBranch(final BranchDto branch) {
+		this.branchesByTracker.computeIfAbsent(branch.getTrackerIdOfBranch(), id -> new ArrayList<>()).add(branch);
+	}
+
+	@Override
+	public TrackerDto findTracker(final UserDto user, final Integer trackerId) throws ResourceNotFoundException {
+		final TrackerDto result = this.trackers.get(trackerId);
+		if (result == null) {
+			throw new ResourceNotFoundException("Tracker is not found: " + trackerId, "trackers/" + trackerId);
+		}
+		return result;
+	}
+
+	@Override
+	public Multimap<TrackerDto, TrackerLayoutLabelDto> getIncomingReferenceFields(final UserDto user, final TrackerDto target,
+			final Set<Integer> referringTrackerIds) {
+		final Multimap<TrackerDto, TrackerLayoutLabelDto> result = ArrayListMultimap.create();
+		final Multimap<TrackerDto, TrackerLayoutLabelDto> fields = this.referringFieldsByTarget.get(target.getId());
+		if (fields != null) {
+			fields.entries().stream()
+					.filter(entry -> referringTrackerIds.contains(entry.getValue().getTrackerId()))
+					.forEach(entry -> result.put(entry.getKey(), entry.getValue()));
+		}
+		return result;
+	}
+
+	@Override
+	public boolean isBranchAdmin(final UserDto user, final ProjectDto project) {
+		return this.branchAdminProjectIds.contains(project.getId());
+	}
+
+	@Override
+	public boolean isProjectAdmin(final UserDto user, final ProjectDto project) {
+		return false;
+	}
+
+	@Override
+	public boolean isSystemAdmin(final UserDto user) {
+		return false;
+	}
+
+	@Override
+	public UserDto findUser(final Integer userId) {
+		return this.users.get(userId);
+	}
+
+	@Override
+	public List<BranchDto> findBranches(final UserDto user, final Collection<Integer> trackerIds) {
+		// like the database, returns new objects on every call
+		final List<BranchDto> result = new ArrayList<>();
+		for (final Integer trackerId : trackerIds) {
+			for (final BranchDto branch : this.branchesByTracker.getOrDefault(trackerId, new ArrayList<>())) {
+				result.add(copy(branch));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public TrackerReferenceModel convert(final TrackerDto tracker) {
+		final TrackerReferenceModel result = new TrackerReferenceModel();
+		result.setId(tracker.getId());
+		result.setName(tracker.getName());
+		return result;
+	}
+
+	private static BranchDto copy(final BranchDto branch) {
+		final BranchDto result = new BranchDto();
+		result.setId(branch.getId());
+		result.setTrackerIdOfBranch(branch.getTrackerIdOfBranch());
+		result.setName(branch.getName());
+		result.setKeyName(branch.getKeyName());
+		result.setColor(branch.getColor());
+		result.setDescription(branch.getDescription());
+		return result;
+	}
+}
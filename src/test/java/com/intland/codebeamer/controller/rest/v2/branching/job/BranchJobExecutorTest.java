@@ -0,0 +1,238 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching.job;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import com.intland.codebeamer.controller.rest.v2.model.reference.TrackerReferenceModel;
+import com.intland.codebeamer.persistence.dto.UserDto;
+
+/**
+ * Hands a part over on a worker thread after the request it was submitted with has been completed.
+ */
+public class BranchJobExecutorTest {
+	private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+	private final AtomicBoolean completed = new AtomicBoolean();
+	private final Map<String, Object> seen = new LinkedHashMap<>();
+	private BranchJob job;
+	private BranchJobExecutor executor;
+
+	@Before
+	public void setUp() {
+		final UserDto user = new UserDto();
+		user.setId(Integer.valueOf(7));
+		final TrackerReferenceModel source = new TrackerReferenceModel();
+		source.setId(Integer.valueOf(1));
+		final BranchJob.Unit unit = new BranchJob.Unit(source, "Release");
+		final BranchJob.Part part = new BranchJob.Part(Collections.singletonList(unit), new ArrayList<>());
+		this.job = new BranchJob("job", user, Collections.singletonList(part), Collections.singleton(Integer.valueOf(10)), new HashSet<>(),
+				new BranchJobListener() {});
+
+		// reads the request the way a creator may: directly and through the request context of the thread
+		this.executor = new BranchJobExecutor((request, jobUser, parameters) -> {
+			this.seen.put("locale", request.getLocale());
+			this.seen.put("authorization", request.getHeader("Authorization"));
+			this.seen.put("cookies", request.getCookies());
+			this.seen.put("accept", request.getHeader("Accept"));
+			this.seen.put("queryString", request.getQueryString());
+			this.seen.put("pathInfo", request.getPathInfo());
+			this.seen.put("dispatcherType", request.getDispatcherType());
+			this.seen.put("servletContext", request.getServletContext());
+			this.seen.put("session", request.getSession(false));
+			this.seen.put("allowed", request.getAttribute("codebeamer.allowed"));
+			this.seen.put("other", request.getAttribute("codebeamer.other"));
+			this.seen.put("contextRequest", ((ServletRequestAttributes) RequestContextHolder.currentRequestAttributes()).getRequest());
+			this.seen.put("link", ServletUriComponentsBuilder.fromCurrentContextPath().path("/tracker/{id}").buildAndExpand(Integer.valueOf(1)).toUriString());
+			this.seen.put("request", request);
+
+			final TrackerReferenceModel branch = new TrackerReferenceModel();
+			branch.setId(Integer.valueOf(100));
+			this.job.created(unit, branch.getId(), branch);
+		}, new BranchJobStore());
+		this.executor.start();
+	}
+
+	@After
+	public void tearDown() {
+		this.executor.stop();
+	}
+
+	@Test
+	public void handsOverThroughDetachedRequest() throws InterruptedException {
+		final MockHttpServletRequest original = new MockHttpServletRequest("POST", "/cb/api/v3/create-branches");
+		original.setScheme("https");
+		original.setServerName("cb.example.com");
+		original.setServerPort(8443);
+		original.setContextPath("/cb");
+		original.setServletPath("/api");
+		original.setPathInfo("/v3/create-branches");
+		original.setQueryString("priority=LOW");
+		original.addPreferredLocale(Locale.GERMAN);
+		original.addHeader("Authorization", "Basic dXNlcjpwYXNz");
+		original.addHeader("Cookie", "JSESSIONID=1234");
+		original.addHeader("Accept", "application/json");
+		original.setAttribute("codebeamer.allowed", "value");
+		original.setAttribute("codebeamer.other", "value");
+
+		final DetachedHttpServletRequest request = new DetachedHttpServletRequest(recycledAfterCompletion(original),
+				Collections.singletonList("codebeamer.allowed"));
+		this.completed.set(true);
+
+		this.executor.execute(this.job, request);
+		awaitSettled();
+
+		assertEquals(this.job.getMessage(), BranchJobStatus.COMPLETED, this.job.getStatus());
+		assertEquals(Locale.GERMAN, this.seen.get("locale"));
+		assertNull(this.seen.get("authorization"));
+		assertNull(this.seen.get("cookies"));
+		assertEquals("application/json", this.seen.get("accept"));
+		assertEquals("priority=LOW", this.seen.get("queryString"));
+		assertEquals("/v3/create-branches", this.seen.get("pathInfo"));
+		assertEquals(DispatcherType.REQUEST, this.seen.get("dispatcherType"));
+		assertSame(original.getServletContext(), this.seen.get("servletContext"));
+		assertNull(this.seen.get("session"));
+		assertEquals("value", this.seen.get("allowed"));
+		assertNull(this.seen.get("other"));
+		assertSame(request, this.seen.get("contextRequest"));
+		assertEquals("https://cb.example.com:8443/cb/tracker/1", this.seen.get("link"));
+		assertNull(original.getSession(false));
+	}
+
+	@Test
+	public void failsJobIfCreatorNeedsBody() throws InterruptedException {
+		this.executor.stop();
+		this.executor = new BranchJobExecutor((request, jobUser, parameters) -> {
+			try {
+				request.getInputStream();
+			} catch (final IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}, new BranchJobStore());
+		this.executor.start();
+
+		this.executor.execute(this.job, new DetachedHttpServletRequest(new MockHttpServletRequest(), Collections.emptyList()));
+		awaitSettled();
+
+		assertEquals(BranchJobStatus.FAILED, this.job.getStatus());
+		assertTrue(this.job.getMessage(), this.job.getMessage().contains("request has been completed"));
+	}
+
+	@Test
+	public void failsJobWithoutLease() throws InterruptedException {
+		final AtomicBoolean handedOver = new AtomicBoolean();
+		this.executor.stop();
+		this.executor = new BranchJobExecutor((request, jobUser, parameters) -> handedOver.set(true), new BranchJobStore() {
+			@Override
+			public boolean renewLease(final String jobId) {
+				return false;
+			}
+		});
+		this.executor.start();
+
+		this.executor.execute(this.job, new DetachedHttpServletRequest(new MockHttpServletRequest(), Collections.emptyList()));
+		awaitSettled();
+
+		assertEquals(BranchJobStatus.FAILED, this.job.getStatus());
+		assertFalse(handedOver.get());
+		assertFalse(this.job.getParts().get(0).isHandedOver());
+	}
+
+	@Test
+	public void completesJobWithoutParts() {
+		final AtomicBoolean settled = new AtomicBoolean();
+		final BranchJob emptyJob = new BranchJob("empty", this.job.getUser(), Collections.emptyList(), Collections.emptySet(), new HashSet<>(),
+				new BranchJobListener() {
+					@Override
+					public void jobSettled(final BranchJob settledJob) {
+						settled.set(true);
+					}
+				});
+
+		this.executor.execute(emptyJob, new DetachedHttpServletRequest(new MockHttpServletRequest(), Collections.emptyList()));
+
+		assertEquals(BranchJobStatus.COMPLETED, emptyJob.getStatus());
+		assertTrue(emptyJob.isSettled());
+		assertTrue(settled.get());
+	}
+
+	private void awaitSettled() throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!this.job.isSettled() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue("job has not settled", this.job.isSettled());
+	}
+
+	/**
+	 * @return the request, failing on every call once it has been completed, as a recycled request of the container
+	 */
+	private HttpServletRequest recycledAfterCompletion(final HttpServletRequest request) {
+		return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(), new Class<?>[] { HttpServletRequest.class },
+				(proxy, method, args) -> {
+					if (this.completed.get()) {
+						throw new IllegalStateException("Recycled request called: " + method.getName());
+					}
+					try {
+						return method.invoke(request, args);
+					} catch (final InvocationTargetException e) {
+						throw e.getCause();
+					}
+				});
+	}
+}
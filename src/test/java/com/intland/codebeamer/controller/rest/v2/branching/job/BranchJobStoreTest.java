@@ -0,0 +1,397 @@
+/**
+ * Copyright 2020 Intland Software GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package com.intland.codebeamer.controller.rest.v2.branching.job;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockServletContext;
+
+import com.intland.codebeamer.controller.rest.v2.branching.model.CreateBranchModel;
+import com.intland.codebeamer.controller.rest.v2.model.reference.TrackerReferenceModel;
+import com.intland.codebeamer.persistence.dto.UserDto;
+
+/**
+ * Runs the branch job store of two nodes against the same H2 database created by the shipped script.
+ */
+public class BranchJobStoreTest {
+	private static final Integer USER_ID = Integer.valueOf(7);
+
+	private JdbcDataSource dataSource;
+	private JdbcTemplate jdbc;
+	private BranchJobStore node;
+	private BranchJobStore otherNode;
+
+	@Before
+	public void setUp() throws SQLException {
+		this.dataSource = new JdbcDataSource();
+		this.dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+		try (Connection connection = this.dataSource.getConnection()) {
+			ScriptUtils.executeSqlScript(connection, new ClassPathResource("branching-job-store.sql", BranchJobStore.class));
+		}
+		this.jdbc = new JdbcTemplate(this.dataSource);
+
+		this.node = new BranchJobStore();
+		this.node.start(this.dataSource);
+		this.otherNode = new BranchJobStore();
+		this.otherNode.start(this.dataSource);
+	}
+
+	@After
+	public void tearDown() {
+		this.node.stop();
+		this.otherNode.stop();
+		this.jdbc.execute("SHUTDOWN");
+	}
+
+	@Test
+	public void isDisabledWithoutTables() throws SQLException {
+		final JdbcDataSource empty = new JdbcDataSource();
+		empty.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+		final BranchJobStore store = new BranchJobStore();
+		store.start(empty);
+
+		assertFalse(store.isEnabled());
+		assertNull(store.find("any"));
+		try (Connection connection = empty.getConnection(); ResultSet tables = connection.getMetaData().getTables(null, null, "BRANCHING_JOB", null)) {
+			assertFalse(tables.next());
+		}
+		new JdbcTemplate(empty).execute("SHUTDOWN");
+	}
+
+	@Test
+	public void savesAndFindsJob() {
+		final BranchJob job = createJob(new BranchJobListener() {}, new HashSet<>(Arrays.asList(Integer.valueOf(5), Integer.valueOf(6))));
+		assertTrue(this.node.save(job, "key", Arrays.asList(
+				Arrays.asList(createModel(1, "Release"), createModel(2, "Release")),
+				Collections.singletonList(createModel(1, "Hotfix"))), BranchJobPriority.HIGH, createRequest()));
+
+		final BranchJobStore.StoredJob stored = this.otherNode.find(job.getId());
+		assertEquals(USER_ID, stored.getUserId());
+		assertEquals(BranchJobStatus.QUEUED, stored.getStatus());
+		assertEquals(BranchJobPriority.HIGH, stored.getPriority());
+		assertEquals(job.getSubmittedAt().getTime(), stored.getSubmittedAt());
+		assertFalse(stored.isInterrupted());
+		assertEquals(new HashSet<>(Arrays.asList(Integer.valueOf(5), Integer.valueOf(6))), stored.getKnownBranchIds());
+
+		assertEquals(3, stored.getUnits().size());
+		assertEquals(0, stored.getUnits().get(1).getPartIndex());
+		assertEquals(Integer.valueOf(2), stored.getUnits().get(1).getModel().getSource().getId());
+		assertEquals(1, stored.getUnits().get(2).getPartIndex());
+		assertEquals("Hotfix", stored.getUnits().get(2).getModel().getName());
+		assertFalse(stored.getUnits().get(2).isCreated());
+
+		assertEquals(job.getId(), this.otherNode.findJobId("key", 0L));
+		assertEquals(job.getId(), this.otherNode.findJobId("key", job.getSubmittedAt().getTime() + 1));
+	}
+
+	/**
+	 * A job failed while a part handed over may still be running keeps its lease and its key until it settles.
+	 */
+	@Test
+	public void keepsLeaseOfFailedJobUntilSettled() {
+		final BranchJob job = createJob(this.node, new HashSet<>());
+		assertTrue(this.node.save(job, "key", Collections.singletonList(Collections.singletonList(createModel(1, "Release"))), null, createRequest()));
+		job.start();
+		job.handOver(job.getParts().get(0));
+
+		job.fail("Stalled");
+		BranchJobStore.StoredJob stored = this.otherNode.find(job.getId());
+		assertEquals(BranchJobStatus.FAILED, stored.getStatus());
+		assertFalse(stored.isSettled());
+		assertFalse(stored.isInterrupted());
+		assertFalse(this.otherNode.claim(job.getId()));
+
+		expireLease(job);
+		this.node.maintain();
+		assertFalse(this.otherNode.find(job.getId()).isSettled());
+		final long finishedAt = job.getFinishedAt().getTime();
+		assertEquals(job.getId(), this.otherNode.findJobId("key", finishedAt + 1));
+
+		job.settle();
+		stored = this.otherNode.find(job.getId());
+		assertTrue(stored.isSettled());
+		assertNull(getLeaseUntil(job));
+		assertEquals(job.getId(), this.otherNode.findJobId("key", finishedAt));
+		assertNull(this.otherNode.findJobId("key", finishedAt + 1));
+	}
+
+	@Test
+	public void recordsCheckpointOnce() {
+		final BranchJob job = saveJob(this.node, new BranchJobListener() {});
+
+		this.node.recordBranch(job.getId(), Integer.valueOf(1), "Release", Integer.valueOf(100));
+		this.otherNode.recordBranch(job.getId(), Integer.valueOf(1), "Release", Integer.valueOf(101));
+
+		final BranchJobStore.StoredJob stored = this.node.find(job.getId());
+		assertEquals(Integer.valueOf(100), stored.getUnits().get(0).getBranchId());
+		assertTrue(stored.getKnownBranchIds().contains(Integer.valueOf(100)));
+		assertFalse(stored.getKnownBranchIds().contains(Integer.valueOf(101)));
+	}
+
+	@Test
+	public void claimsOnlyAfterLeaseExpired() {
+		final BranchJob job = saveJob(this.node, new BranchJobListener() {});
+		assertFalse(this.otherNode.claim(job.getId()));
+
+		expireLease(job);
+		assertTrue(this.otherNode.find(job.getId()).isInterrupted());
+		assertTrue(this.otherNode.claim(job.getId()));
+		assertFalse(this.node.claim(job.getId()));
+		assertFalse(this.node.find(job.getId()).isInterrupted());
+	}
+
+	@Test
+	public void releasedJobCanBeClaimedAgain() {
+		final BranchJob job = saveJob(this.node, new BranchJobListener() {});
+		expireLease(job);
+		assertTrue(this.otherNode.claim(job.getId()));
+
+		this.node.release(job.getId());
+		assertFalse(this.node.claim(job.getId()));
+
+		this.otherNode.release(job.getId());
+		assertTrue(this.node.claim(job.getId()));
+	}
+
+	@Test
+	public void completesClaimedJob() {
+		final BranchJob job = saveJob(this.node, new BranchJobListener() {});
+		expireLease(job);
+		assertTrue(this.otherNode.claim(job.getId()));
+
+		this.node.complete(job.getId());
+		assertEquals(BranchJobStatus.QUEUED, this.node.find(job.getId()).getStatus());
+
+		this.otherNode.complete(job.getId());
+		final BranchJobStore.StoredJob stored = this.node.find(job.getId());
+		assertEquals(BranchJobStatus.COMPLETED, stored.getStatus());
+		assertFalse(stored.isInterrupted());
+		assertFalse(this.node.claim(job.getId()));
+	}
+
+	/**
+	 * A node whose lease has expired while the job was still running on it must neither renew the lease
+	 * nor finish the job once another node has claimed it.
+	 */
+	@Test
+	public void staleNodeCannotTakeBackClaimedJob() {
+		final BranchJob job = saveJob(this.node, this.node);
+		job.start();
+		assertEquals(BranchJobStatus.RUNNING, this.node.find(job.getId()).getStatus());
+		assertTrue(this.node.renewLease(job.getId()));
+
+		expireLease(job);
+		assertTrue(this.otherNode.claim(job.getId()));
+		final Long leaseUntil = getLeaseUntil(job);
+
+		this.node.maintain();
+		assertEquals(leaseUntil, getLeaseUntil(job));
+		assertFalse(this.node.renewLease(job.getId()));
+		assertEquals(leaseUntil, getLeaseUntil(job));
+
+		job.fail("Stopped");
+		final BranchJobStore.StoredJob stored = this.node.find(job.getId());
+		assertEquals(BranchJobStatus.QUEUED, stored.getStatus());
+		assertNull(stored.getFinishedAt());
+
+		this.otherNode.maintain();
+		assertTrue(getLeaseUntil(job).longValue() >= leaseUntil.longValue());
+	}
+
+	/**
+	 * Another node rebuilds the request a job has been submitted with from the store, to resume the job on its own.
+	 */
+	@Test
+	public void resumesInterruptedJobWithStoredRequest() {
+		final BranchJob job = saveJob(this.node, new BranchJobListener() {});
+		assertTrue(this.otherNode.findInterruptedJobIds().isEmpty());
+
+		expireLease(job);
+		assertEquals(Collections.singletonList(job.getId()), this.otherNode.findInterruptedJobIds());
+		assertTrue(this.otherNode.claim(job.getId()));
+		assertTrue(this.otherNode.findInterruptedJobIds().isEmpty());
+
+		final DetachedHttpServletRequest request = new DetachedHttpServletRequest(this.otherNode.findRequest(job.getId()), new MockServletContext());
+		assertEquals("POST", request.getMethod());
+		assertEquals("/cb/api/v3/create-branches", request.getRequestURI());
+		assertEquals("http://localhost/cb/api/v3/create-branches", request.getRequestURL().toString());
+		assertEquals("Mozilla", request.getHeader("User-Agent"));
+		assertEquals(Arrays.asList("a", "b"), Collections.list(request.getHeaders("X-Tag")));
+		assertEquals("tenant-1", request.getAttribute("tenant"));
+		assertEquals("bond", request.getUserPrincipal().getName());
+		assertEquals("10.0.0.1", request.getRemoteAddr());
+		assertNull(request.getSession(false));
+
+		final MockHttpServletRequest resumedRequest = new MockHttpServletRequest("POST", "/cb/api/v3/branch-jobs/" + job.getId() + "/resume");
+		this.node.saveRequest(job.getId(), new DetachedHttpServletRequest(resumedRequest, Collections.emptyList()));
+		assertEquals("/cb/api/v3/create-branches", this.node.findRequest(job.getId()).get("requestURI"));
+		this.otherNode.saveRequest(job.getId(), new DetachedHttpServletRequest(resumedRequest, Collections.emptyList()));
+		assertEquals(resumedRequest.getRequestURI(), this.node.findRequest(job.getId()).get("requestURI"));
+	}
+
+	@Test
+	public void storesLongRequestInChunks() {
+		final MockHttpServletRequest original = new MockHttpServletRequest("POST", "/cb/api/v3/create-branches");
+		final StringBuilder value = new StringBuilder();
+		while (value.length() < 5000) {
+			value.append("branch \uD83C\uDF3F ");
+		}
+		original.addHeader("X-Long", value.toString());
+
+		final BranchJob job = createJob(new BranchJobListener() {}, new HashSet<>());
+		assertTrue(this.node.save(job, null, Collections.singletonList(Collections.singletonList(createModel(1, "Release"))), null,
+				new DetachedHttpServletRequest(original, Collections.emptyList())));
+
+		assertTrue(this.jdbc.queryForObject("SELECT COUNT(*) FROM branching_job_request WHERE job_id = ?", Integer.class, job.getId()).intValue() > 1);
+		final DetachedHttpServletRequest request = new DetachedHttpServletRequest(this.otherNode.findRequest(job.getId()), new MockServletContext());
+		assertEquals(value.toString(), request.getHeader("X-Long"));
+	}
+
+	@Test
+	public void failsClaimedJob() {
+		final BranchJob job = saveJob(this.node, new BranchJobListener() {});
+		expireLease(job);
+		assertTrue(this.otherNode.claim(job.getId()));
+
+		this.node.fail(job.getId(), "Tracker is not found: 1");
+		assertEquals(BranchJobStatus.QUEUED, this.node.find(job.getId()).getStatus());
+
+		this.otherNode.fail(job.getId(), "Tracker is not found: 1");
+		final BranchJobStore.StoredJob stored = this.node.find(job.getId());
+		assertEquals(BranchJobStatus.FAILED, stored.getStatus());
+		assertEquals("Tracker is not found: 1", stored.getMessage());
+		assertFalse(stored.isInterrupted());
+		assertTrue(this.node.findInterruptedJobIds().isEmpty());
+		assertFalse(this.node.claim(job.getId()));
+	}
+
+	@Test
+	public void onlyOneNodeClaimsExpiredJob() throws Exception {
+		final BranchJob job = saveJob(this.node, new BranchJobListener() {});
+		expireLease(job);
+
+		final CountDownLatch ready = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			final List<Future<Boolean>> claims = new ArrayList<>();
+			for (final BranchJobStore store : Arrays.asList(this.node, this.otherNode)) {
+				claims.add(executor.submit((Callable<Boolean>) () -> {
+					ready.await();
+					return Boolean.valueOf(store.claim(job.getId()));
+				}));
+			}
+			ready.countDown();
+
+			int claimed = 0;
+			for (final Future<Boolean> claim : claims) {
+				if (claim.get().booleanValue()) {
+					claimed++;
+				}
+			}
+			assertEquals(1, claimed);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private BranchJob saveJob(final BranchJobStore store, final BranchJobListener listener) {
+		final BranchJob job = createJob(listener, new HashSet<>());
+		assertTrue(store.save(job, null, Collections.singletonList(Collections.singletonList(createModel(1, "Release"))), null, createRequest()));
+		return job;
+	}
+
+	private static DetachedHttpServletRequest createRequest() {
+		final MockHttpServletRequest original = new MockHttpServletRequest("POST", "/cb/api/v3/create-branches");
+		original.addHeader("User-Agent", "Mozilla");
+		original.addHeader("X-Tag", "a");
+		original.addHeader("X-Tag", "b");
+		original.setAttribute("tenant", "tenant-1");
+		original.setUserPrincipal(() -> "bond");
+		original.setRemoteAddr("10.0.0.1");
+		return new DetachedHttpServletRequest(original, Collections.singletonList("tenant"));
+	}
+
+	private void expireLease(final BranchJob job) {
+		this.jdbc.update("UPDATE branching_job SET lease_until = ? WHERE id = ?", Long.valueOf(System.currentTimeMillis() - 1), job.getId());
+	}
+
+	private Long getLeaseUntil(final BranchJob job) {
+		return this.jdbc.queryForObject("SELECT lease_until FROM branching_job WHERE id = ?", Long.class, job.getId());
+	}
+
+	private static BranchJob createJob(final BranchJobListener listener, final Set<Integer> knownBranchIds) {
+		final UserDto user = new UserDto();
+		user.setId(USER_ID);
+		final BranchJob.Part part = new BranchJob.Part(Collections.singletonList(new BranchJob.Unit(createSource(1), "Release")), Collections.emptyList());
+		return new BranchJob(UUID.randomUUID().toString(), user, Collections.singletonList(part), Collections.singleton(Integer.valueOf(1)),
+				knownBranchIds, listener);
+	}
+
+	private static CreateBranchModel createModel(final int sourceId, final String name) {
+		final CreateBranchModel result = new CreateBranchModel();
+		result.setSource(createSource(sourceId));
+		result.setName(name);
+		return result;
+	}
+
+	private static TrackerReferenceModel createSource(final int id) {
+		final TrackerReferenceModel result = new TrackerReferenceModel();
+		result.setId(Integer.valueOf(id));
+		return result;
+	}
+}